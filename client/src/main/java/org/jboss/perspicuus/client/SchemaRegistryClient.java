@@ -14,13 +14,23 @@ package org.jboss.perspicuus.client;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.jboss.resteasy.plugins.interceptors.encoding.AcceptEncodingGZIPFilter;
+import org.jboss.resteasy.plugins.interceptors.encoding.GZIPDecodingInterceptor;
 
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Client for communicating with a remote Schema Registry server.
@@ -32,14 +42,59 @@ public class SchemaRegistryClient {
 
     private static final String CONTENT_TYPE = "application/vnd.schemaregistry.v1+json";
 
+    // lookups prefer the more compact binary form, but accept JSON from servers that don't support it.
+    private static final String[] LOOKUP_TYPES = {"application/vnd.schemaregistry.v1+cbor", CONTENT_TYPE+"; q=0.9"};
+
     private final Client client = ClientBuilder.newClient();
     private final String serverURL;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+    // the most the server accepts in one multi-get or batch registration request.
+    private static final int MAX_IDS_PER_REQUEST = 1000;
+    private static final int MAX_REGISTRATIONS_PER_REQUEST = 1000;
+
+    // the most a compressed response may inflate to, resteasy's default. It's passed explicitly because, when unset,
+    // resteasy looks for an override in the ServletContext, which fails outside a servlet container.
+    private static final int MAX_DECOMPRESSED_BYTES = 10000000;
+
+    // id -> result of an in-progress batch lookup, shared with concurrent callers wanting the same id.
+    private final ConcurrentMap<Integer,CompletableFuture<String>> pendingLookups = new ConcurrentHashMap<>();
 
     public SchemaRegistryClient(String serverURL, String username, String password) {
         this.serverURL = serverURL;
         client.register(new BasicAuthFilter(username, password));
+        // ask for compressed responses, and decompress them.
+        client.register(AcceptEncodingGZIPFilter.class);
+        client.register(new GZIPDecodingInterceptor(MAX_DECOMPRESSED_BYTES));
+    }
+
+    /**
+     * Parse the body of a lookup response, which may be in either of the LOOKUP_TYPES.
+     *
+     * @param response
+     * @param typeReference
+     * @param <T>
+     * @return
+     * @throws IOException
+     * @throws NotFoundException for a 404 response, as for the typed forms of get and post.
+     */
+    private <T> T readLookup(Response response, TypeReference<T> typeReference) throws IOException {
+        try {
+            if(response.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                throw new NotFoundException(response);
+            }
+            if(response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new WebApplicationException(response);
+            }
+            MediaType mediaType = response.getMediaType();
+            boolean isCbor = mediaType != null && mediaType.getSubtype().endsWith("cbor");
+            byte[] body = response.readEntity(byte[].class);
+            return (isCbor ? cborMapper : objectMapper).readValue(body, typeReference);
+        } finally {
+            response.close();
+        }
     }
 
     /**
@@ -51,8 +106,8 @@ public class SchemaRegistryClient {
      */
     public String getStringSchema(int id) throws IOException {
         try {
-            String resultString = client.target(serverURL + "/schemas/ids/"+id).request(CONTENT_TYPE).get(String.class);
-            Map<String,Object> resultMap = objectMapper.readValue(resultString, new TypeReference<Map<String,Object>>() {});
+            Response response = client.target(serverURL + "/schemas/ids/"+id).request(LOOKUP_TYPES).get();
+            Map<String,Object> resultMap = readLookup(response, new TypeReference<Map<String,Object>>() {});
             String schemaString = (String)resultMap.get("schema");
             return schemaString;
         } catch(NotFoundException e) {
@@ -60,6 +115,83 @@ public class SchemaRegistryClient {
         }
     }
 
+    /**
+     * Return the schemas corresponding to the given ids, fetching them with as few requests as the server's limit allows.
+     * Ids already being fetched by a concurrent call from another thread are not requested again,
+     * but rather the result of that call is awaited and shared.
+     *
+     * @param ids
+     * @return a map of id to schema, omitting any ids that are unknown.
+     * @throws IOException
+     */
+    public Map<Integer,String> getStringSchemas(Collection<Integer> ids) throws IOException {
+
+        Map<Integer,CompletableFuture<String>> futures = new LinkedHashMap<>();
+        Map<Integer,CompletableFuture<String>> ownFutures = new LinkedHashMap<>();
+        for(Integer id : ids) {
+            if(futures.containsKey(id)) {
+                continue;
+            }
+            CompletableFuture<String> future = new CompletableFuture<>();
+            CompletableFuture<String> pendingFuture = pendingLookups.putIfAbsent(id, future);
+            if(pendingFuture == null) {
+                ownFutures.put(id, future);
+                futures.put(id, future);
+            } else {
+                futures.put(id, pendingFuture);
+            }
+        }
+
+        if(!ownFutures.isEmpty()) {
+            try {
+                List<Integer> ownIds = new ArrayList<>(ownFutures.keySet());
+                for(int i = 0; i < ownIds.size(); i += MAX_IDS_PER_REQUEST) {
+                    List<Integer> chunk = ownIds.subList(i, Math.min(i+MAX_IDS_PER_REQUEST, ownIds.size()));
+                    String requestString = objectMapper.writeValueAsString(chunk);
+                    Response response = client.target(serverURL + "/schemas/ids").request(LOOKUP_TYPES).post(Entity.json(requestString));
+                    List<Map<String,Object>> resultList = readLookup(response, new TypeReference<List<Map<String,Object>>>() {});
+                    for(Map<String,Object> resultMap : resultList) {
+                        CompletableFuture<String> future = ownFutures.get((Integer)resultMap.get("id"));
+                        if(future != null) {
+                            future.complete((String)resultMap.get("schema"));
+                        }
+                    }
+                    // anything in the chunk but not in the response is unknown.
+                    for(Integer id : chunk) {
+                        ownFutures.get(id).complete(null);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // a no-op for those completed by earlier chunks.
+                for(CompletableFuture<String> future : ownFutures.values()) {
+                    future.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                for(Map.Entry<Integer,CompletableFuture<String>> entry : ownFutures.entrySet()) {
+                    pendingLookups.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        Map<Integer,String> results = new LinkedHashMap<>();
+        for(Map.Entry<Integer,CompletableFuture<String>> entry : futures.entrySet()) {
+            String schema;
+            try {
+                schema = entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            if(schema != null) {
+                results.put(entry.getKey(), schema);
+            }
+        }
+        return results;
+    }
+
     /**
      * List schema ids for the given topic, in version order.
      * Note that versions number from one, whist the array indexes from zero.
@@ -70,8 +202,8 @@ public class SchemaRegistryClient {
      */
     public List<Integer> listVersions(String subject) throws IOException {
         try {
-            String resultString = client.target(serverURL + "/subjects/"+subject+"/versions").request(CONTENT_TYPE).get(String.class);
-            List<Integer> versionList = objectMapper.readValue(resultString, new TypeReference<List<Integer>>() {});
+            Response response = client.target(serverURL + "/subjects/"+subject+"/versions").request(LOOKUP_TYPES).get();
+            List<Integer> versionList = readLookup(response, new TypeReference<List<Integer>>() {});
             return versionList;
         } catch (NotFoundException e) {
             return null;
@@ -103,8 +235,8 @@ public class SchemaRegistryClient {
 
     protected int getVersion(String subject, String version) throws IOException {
         try {
-            String resultString = client.target(serverURL + "/subjects/"+subject+"/versions/"+version).request(CONTENT_TYPE).get(String.class);
-            Map<String,Object> resultMap = objectMapper.readValue(resultString, new TypeReference<Map<String,Object>>() {});
+            Response response = client.target(serverURL + "/subjects/"+subject+"/versions/"+version).request(LOOKUP_TYPES).get();
+            Map<String,Object> resultMap = readLookup(response, new TypeReference<Map<String,Object>>() {});
             int id = (Integer) resultMap.get("id");
             return id;
         } catch (NotFoundException e) {
@@ -119,8 +251,8 @@ public class SchemaRegistryClient {
      * @throws IOException
      */
     public List<String> getSubjects() throws IOException {
-        String resultString = client.target(serverURL+"/subjects").request(CONTENT_TYPE).get(String.class);
-        List<String> subjects = objectMapper.readValue(resultString, new TypeReference<List<String>>() {});
+        Response response = client.target(serverURL+"/subjects").request(LOOKUP_TYPES).get();
+        List<String> subjects = readLookup(response, new TypeReference<List<String>>() {});
         return subjects;
     }
 
@@ -165,6 +297,58 @@ public class SchemaRegistryClient {
         return id;
     }
 
+    /**
+     * The outcome of registering one schema of a batch: either its id, or why it failed.
+     */
+    public static class RegistrationResult {
+        public final String subject;
+        public final Integer id;
+        public final Integer errorCode;
+        public final String message;
+
+        public RegistrationResult(String subject, Integer id, Integer errorCode, String message) {
+            this.subject = subject;
+            this.id = id;
+            this.errorCode = errorCode;
+            this.message = message;
+        }
+
+        public boolean isRegistered() {
+            return id != null;
+        }
+    }
+
+    /**
+     * Register many schemas, each under its subject, with as few requests as the server's limit allows.
+     *
+     * @param subjectsToSchemas
+     * @return the result for each subject: the schema id, or the error code and message if registration failed e.g. as incompatible.
+     * @throws IOException
+     */
+    public Map<String,RegistrationResult> registerSchemas(Map<String,String> subjectsToSchemas) throws IOException {
+        List<Map<String,Object>> requestList = new ArrayList<>(subjectsToSchemas.size());
+        for(Map.Entry<String,String> entry : subjectsToSchemas.entrySet()) {
+            Map<String,Object> requestMap = new HashMap<>();
+            requestMap.put("subject", entry.getKey());
+            requestMap.put("schema", entry.getValue());
+            requestList.add(requestMap);
+        }
+        Map<String,RegistrationResult> results = new LinkedHashMap<>();
+        for(int i = 0; i < requestList.size(); i += MAX_REGISTRATIONS_PER_REQUEST) {
+            List<Map<String,Object>> chunk = requestList.subList(i, Math.min(i+MAX_REGISTRATIONS_PER_REQUEST, requestList.size()));
+            String requestString = objectMapper.writeValueAsString(chunk);
+            String result = client.target(serverURL+"/batch/subjects/versions")
+                    .request(CONTENT_TYPE).post(Entity.json(requestString), String.class);
+            List<Map<String,Object>> resultList = objectMapper.readValue(result, new TypeReference<List<Map<String,Object>>>() {});
+            for(Map<String,Object> resultMap : resultList) {
+                String subject = (String)resultMap.get("subject");
+                results.put(subject, new RegistrationResult(subject, (Integer)resultMap.get("id"),
+                        (Integer)resultMap.get("error_code"), (String)resultMap.get("message")));
+            }
+        }
+        return results;
+    }
+
     /**
      * Delete a specific schema version from the subject.
      *
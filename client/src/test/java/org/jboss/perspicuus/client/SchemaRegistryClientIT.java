@@ -16,6 +16,10 @@ import org.apache.avro.Schema;
 import org.apache.avro.SchemaBuilder;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -65,6 +69,32 @@ public class SchemaRegistryClientIT {
         assertTrue(subjects.contains(subject));
     }
 
+    @Test
+    public void testGetStringSchemas() throws Exception {
+
+        String subject = "clientmultigetsubject";
+        String schemaA = getCustomTestSchema("recordname", new String[] {"multigetfieldA"});
+        String schemaB = getCustomTestSchema("recordname", new String[] {"multigetfieldB"});
+        int idA = schemaRegistryClient.registerSchema(subject, schemaA);
+        int idB = schemaRegistryClient.registerSchema(subject, schemaB);
+
+        Map<Integer,String> schemas = schemaRegistryClient.getStringSchemas(Arrays.asList(idA, idB, Integer.MAX_VALUE));
+
+        assertEquals(2, schemas.size());
+        assertEquals(schemaA, schemas.get(idA));
+        assertEquals(schemaB, schemas.get(idB));
+
+        // more than the server takes in one request
+        List<Integer> ids = new ArrayList<>();
+        for(int i = 0; i < 2500; i++) {
+            ids.add(Integer.MAX_VALUE-i);
+        }
+        ids.add(idB);
+        schemas = schemaRegistryClient.getStringSchemas(ids);
+
+        assertEquals(Collections.singletonMap(idB, schemaB), schemas);
+    }
+
     @Test
     public void testSearch() throws Exception {
 
@@ -153,6 +183,36 @@ public class SchemaRegistryClientIT {
         assertTrue(isCompatible);
     }
 
+    @Test
+    public void testBatchRegistration() throws Exception {
+
+        String incompatibleSubject = "clientbatchsubjectA";
+        schemaRegistryClient.registerSchema(incompatibleSubject, getTestSchema());
+        schemaRegistryClient.setSubjectCompatibilityLevel(incompatibleSubject, "BACKWARD");
+
+        SchemaBuilder.FieldAssembler<Schema> fieldAssembler = SchemaBuilder.record("recordname").fields();
+        fieldAssembler.name("fieldname").type().intType().noDefault();
+        Schema incompatibleSchema = fieldAssembler.endRecord();
+
+        String newSchema = getCustomTestSchema("recordname", new String[] {"batchfield"});
+
+        Map<String,String> subjectsToSchemas = new LinkedHashMap<>();
+        subjectsToSchemas.put(incompatibleSubject, incompatibleSchema.toString());
+        subjectsToSchemas.put("clientbatchsubjectB", newSchema);
+        subjectsToSchemas.put("clientbatchsubjectC", newSchema);
+
+        Map<String,SchemaRegistryClient.RegistrationResult> results = schemaRegistryClient.registerSchemas(subjectsToSchemas);
+
+        assertEquals(3, results.size());
+        SchemaRegistryClient.RegistrationResult failure = results.get(incompatibleSubject);
+        assertFalse(failure.isRegistered());
+        assertEquals(400, (int)failure.errorCode);
+        assertEquals("incompatible schema", failure.message);
+        assertTrue(results.get("clientbatchsubjectB").isRegistered());
+        assertEquals(results.get("clientbatchsubjectB").id, results.get("clientbatchsubjectC").id);
+        assertEquals((int)results.get("clientbatchsubjectB").id, schemaRegistryClient.getLatestVersion("clientbatchsubjectC"));
+    }
+
     @Test
     public void testGlobalCompatibilityLevel() throws Exception {
 
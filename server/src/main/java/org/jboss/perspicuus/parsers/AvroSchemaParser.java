@@ -14,10 +14,10 @@ package org.jboss.perspicuus.parsers;
 
 import org.apache.avro.*;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * Schema parsing functions for Avro schema.
@@ -25,7 +25,7 @@ import java.util.stream.Collectors;
  * @since 2018-02
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
  */
-public class AvroSchemaParser implements SchemaParser {
+public class AvroSchemaParser implements SchemaParser<Schema> {
 
     @Override
     public Optional<String> parseToCanonicalForm(String rawSchema) {
@@ -39,7 +39,17 @@ public class AvroSchemaParser implements SchemaParser {
     }
 
     @Override
-    public boolean isCompatibleWith(String compatibilityLevel, List<String> existingSchemaStrings, String proposedSchemaString) {
+    public Schema parse(String schema) {
+        return new Schema.Parser().parse(schema);
+    }
+
+    @Override
+    public boolean checksCompatibility(String compatibilityLevel) {
+        return validatorFor(compatibilityLevel) != null;
+    }
+
+    @Override
+    public boolean isCompatible(String compatibilityLevel, List<Schema> existingSchemas, Schema proposedSchema) {
 
         SchemaValidator schemaValidator = validatorFor(compatibilityLevel);
 
@@ -47,18 +57,25 @@ public class AvroSchemaParser implements SchemaParser {
             return true;
         }
 
-        List<Schema> existingSchemas = existingSchemaStrings.stream().map(s -> new Schema.Parser().parse(s)).collect(Collectors.toList());
-        Collections.reverse(existingSchemas); // the most recent must come first, i.e. reverse-chronological.
-        Schema toValidate = new Schema.Parser().parse(proposedSchemaString);
+        List<Schema> reversedSchemas = new ArrayList<>(existingSchemas);
+        Collections.reverse(reversedSchemas); // the most recent must come first, i.e. reverse-chronological.
 
         try {
-            schemaValidator.validate(toValidate, existingSchemas);
+            schemaValidator.validate(proposedSchema, reversedSchemas);
             return true;
         } catch (SchemaValidationException e) {
             return false;
         }
     }
 
+    @Override
+    public Long fingerprint64(String canonicalSchema) {
+        // https://avro.apache.org/docs/current/spec.html#schema_fingerprints
+        // CRC-64-AVRO ('Rabin') of the Parsing Canonical Form, as used by e.g. single object encoding.
+        Schema avroSchema = new Schema.Parser().parse(canonicalSchema);
+        return SchemaNormalization.parsingFingerprint64(avroSchema);
+    }
+
     private SchemaValidator validatorFor(String compatibilityLevel) {
         switch (compatibilityLevel) {
             case "BACKWARD":
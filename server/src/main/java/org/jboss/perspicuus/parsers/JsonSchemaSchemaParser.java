@@ -27,7 +27,7 @@ import java.util.Optional;
  * @since 2018-02
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
  */
-public class JsonSchemaSchemaParser implements SchemaParser {
+public class JsonSchemaSchemaParser implements SchemaParser<JsonNode> {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -51,7 +51,17 @@ public class JsonSchemaSchemaParser implements SchemaParser {
         }
     }
 
-    public boolean isCompatibleWith(String compatibilityLevel, List<String> existingSchemas, String proposedSchema) {
+    @Override
+    public JsonNode parse(String schema) {
+        try {
+            return objectMapper.readTree(schema);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public boolean isCompatible(String compatibilityLevel, List<JsonNode> existingSchemas, JsonNode proposedSchema) {
         return existingSchemas.get(0).equals(proposedSchema);
     }
 }
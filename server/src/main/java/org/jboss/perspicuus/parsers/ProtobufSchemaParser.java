@@ -24,7 +24,7 @@ import java.util.Optional;
  * @since 2019-01
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
  */
-public class ProtobufSchemaParser implements SchemaParser {
+public class ProtobufSchemaParser implements SchemaParser<ProtobufFile> {
 
     @Override
     public Optional<String> parseToCanonicalForm(String rawSchema) {
@@ -89,22 +89,39 @@ public class ProtobufSchemaParser implements SchemaParser {
 
 
     @Override
-    public boolean isCompatibleWith(String compatibilityLevel, List<String> existingSchemas, String proposedSchema) {
+    public ProtobufFile parse(String schema) {
+        return new ProtobufFile(schema);
+    }
+
+    @Override
+    public boolean checksCompatibility(String compatibilityLevel) {
+        switch (compatibilityLevel) {
+            case "BACKWARD":
+            case "BACKWARD_TRANSITIVE":
+            case "FORWARD":
+            case "FORWARD_TRANSITIVE":
+            case "FULL":
+            case "FULL_TRANSITIVE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean isCompatible(String compatibilityLevel, List<ProtobufFile> existingSchemas, ProtobufFile proposedSchema) {
 
         switch (compatibilityLevel) {
 
             case "BACKWARD": {
-                ProtobufFile fileBefore = new ProtobufFile(existingSchemas.get(existingSchemas.size() - 1));
-                ProtobufFile fileAfter = new ProtobufFile(proposedSchema);
-                ProtobufCompatibilityChecker checker = new ProtobufCompatibilityChecker(fileBefore, fileAfter);
+                ProtobufFile fileBefore = existingSchemas.get(existingSchemas.size() - 1);
+                ProtobufCompatibilityChecker checker = new ProtobufCompatibilityChecker(fileBefore, proposedSchema);
                 return checker.validate();
             }
             case "BACKWARD_TRANSITIVE":
 
-                ProtobufFile fileAfter = new ProtobufFile(proposedSchema);
-                for(String existing : existingSchemas) {
-                    ProtobufFile fileBefore = new ProtobufFile(existing);
-                    ProtobufCompatibilityChecker checker = new ProtobufCompatibilityChecker(fileBefore, fileAfter);
+                for(ProtobufFile fileBefore : existingSchemas) {
+                    ProtobufCompatibilityChecker checker = new ProtobufCompatibilityChecker(fileBefore, proposedSchema);
                     if (!checker.validate()) {
                         return false;
                     }
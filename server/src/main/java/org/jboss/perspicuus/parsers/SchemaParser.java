@@ -14,14 +14,17 @@ package org.jboss.perspicuus.parsers;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * Integration point for Schema type-specific parsing libraries.
  *
+ * @param <T> the library's object model for a parsed schema, as used for compatibility testing.
+ *
  * @since 2018-02
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
  */
-public interface SchemaParser {
+public interface SchemaParser<T> {
 
     /**
      * Given an input String, validate that it can be parsed to a valid Schema of some type
@@ -32,6 +35,25 @@ public interface SchemaParser {
      */
     Optional<String> parseToCanonicalForm(String rawSchema);
 
+    /**
+     * Parse the given schema to the library's object model. Parsed instances are treated as immutable,
+     * so may be cached and shared between threads.
+     *
+     * @param schema
+     * @return
+     * @throws RuntimeException if the schema is not valid
+     */
+    T parse(String schema);
+
+    /**
+     * @param compatibilityLevel
+     * @return false if the level places no constraint on schemas of this type, e.g. NONE,
+     * in which case any proposed schema is compatible, whatever its type, and needn't be parsed.
+     */
+    default boolean checksCompatibility(String compatibilityLevel) {
+        return !"NONE".equals(compatibilityLevel);
+    }
+
     /**
      * Determine the compatibility of schemas, according to appropriate type specific rules.
      *
@@ -40,5 +62,28 @@ public interface SchemaParser {
      * @param proposedSchema
      * @return
      */
-    boolean isCompatibleWith(String compatibilityLevel, List<String> existingSchemas, String proposedSchema);
+    default boolean isCompatibleWith(String compatibilityLevel, List<String> existingSchemas, String proposedSchema) {
+        List<T> existing = existingSchemas.stream().map(this::parse).collect(Collectors.toList());
+        return isCompatible(compatibilityLevel, existing, parse(proposedSchema));
+    }
+
+    /**
+     * Determine the compatibility of already parsed schemas, according to appropriate type specific rules.
+     *
+     * @param compatibilityLevel
+     * @param existingSchemas in chronological order, i.e. most recent last.
+     * @param proposedSchema
+     * @return
+     */
+    boolean isCompatible(String compatibilityLevel, List<T> existingSchemas, T proposedSchema);
+
+    /**
+     * Compute the 64 bit fingerprint of the given schema, for types that define one.
+     *
+     * @param canonicalSchema
+     * @return the fingerprint, or null if the schema type has no such concept.
+     */
+    default Long fingerprint64(String canonicalSchema) {
+        return null;
+    }
 }
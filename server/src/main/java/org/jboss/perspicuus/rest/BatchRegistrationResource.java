@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.*;
+import org.jboss.logging.Logger;
+import org.jboss.perspicuus.storage.*;
+
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * REST API for registering many schemas in one request, e.g. from a deployment pipeline.
+ *
+ * Compatibility checks are CPU bound, so they're run on the CompatibilityExecutor, in parallel, one task per subject.
+ * The new schemas and versions are then stored on the StorageExecutor, in one transaction
+ * rather than one per item, so a slow database holds up only other writes, not the checks.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@SwaggerDefinition(
+        securityDefinition = @SecurityDefinition(basicAuthDefinitions = {@BasicAuthDefinition(key="basicAuth")})
+)
+@Api(value = "registry", authorizations = { @Authorization(value = "basicAuth") })
+@Path("/")
+@Produces({"application/vnd.schemaregistry.v1+json",
+        "application/vnd.schemaregistry+json; qs=0.9",
+        "application/json; qs=0.5",
+        "application/vnd.schemaregistry.v1+cbor; qs=0.4",
+        "application/cbor; qs=0.3"})
+@Consumes({"application/vnd.schemaregistry.v1+json",
+        "application/vnd.schemaregistry+json",
+        "application/json", "application/octet-stream",
+        "application/vnd.schemaregistry.v1+cbor", "application/cbor"})
+public class BatchRegistrationResource {
+
+    private static final Logger logger = Logger.getLogger(BatchRegistrationResource.class);
+
+    // every subject in the batch is locked while it's written, so keep that bounded.
+    private static final int MAX_REGISTRATIONS_PER_REQUEST = 1000;
+
+    @Inject
+    StorageManager storageManager;
+
+    @Inject
+    SchemaCompatibilityResource schemaCompatibilityResource;
+
+    @Inject
+    CompatibilityChecker compatibilityChecker;
+
+    @Inject
+    CompatibilityExecutor compatibilityExecutor;
+
+    @Inject
+    StorageExecutor storageExecutor;
+
+    public static class BatchRegistration {
+        public String subject;
+        public String schema;
+        public String schemaType;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class BatchRegistrationResult {
+        public String subject;
+        public Integer id;
+        public Integer error_code;
+        public String message;
+
+        static BatchRegistrationResult success(String subject, int id) {
+            BatchRegistrationResult result = new BatchRegistrationResult();
+            result.subject = subject;
+            result.id = id;
+            return result;
+        }
+
+        static BatchRegistrationResult failure(String subject, int errorCode, String message) {
+            BatchRegistrationResult result = new BatchRegistrationResult();
+            result.subject = subject;
+            result.error_code = errorCode;
+            result.message = message;
+            return result;
+        }
+    }
+
+    // the items of a batch that share a subject, which must be checked in order, each against its predecessors.
+    private static class SubjectGroup {
+        final String subject;
+        final List<Integer> indexes = new ArrayList<>();
+        final List<CanonicalSchema> canonicalSchemas = new ArrayList<>();
+
+        SchemaCompatibilityResource.CheckBasis checkBasis;
+
+        SubjectGroup(String subject) {
+            this.subject = subject;
+        }
+    }
+
+    @ApiOperation(value = "Register many schemas, each under its given subject",
+            response = BatchRegistrationResult.class, responseContainer = "List")
+    @ApiResponses(
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    )
+    @POST
+    @Path("/batch/subjects/versions")
+    @RolesAllowed("catalog_user")
+    public void addSchemas(List<BatchRegistration> requests, @Suspended AsyncResponse asyncResponse) {
+        logger.debugv("addSchemas {0}", requests == null ? "null" : requests.size());
+
+        compatibilityExecutor.submit(asyncResponse, () -> check(requests), storageExecutor, this::register);
+    }
+
+    // the batch part way through, between the checks and the writes.
+    private static class CheckedBatch {
+        final List<BatchRegistration> requests;
+        // null for the items yet to be registered.
+        final BatchRegistrationResult[] results;
+        final Map<String, SubjectGroup> subjectGroups = new LinkedHashMap<>();
+
+        CheckedBatch(List<BatchRegistration> requests) {
+            this.requests = requests;
+            this.results = new BatchRegistrationResult[requests.size()];
+        }
+    }
+
+    // runs on the CompatibilityExecutor, without the subject locks, as for a single registration.
+    private CheckedBatch check(List<BatchRegistration> requests) {
+        if(requests == null) {
+            throw new BadRequestException("Missing registrations");
+        }
+        if(requests.size() > MAX_REGISTRATIONS_PER_REQUEST) {
+            throw new BadRequestException("Too many registrations, limit is "+MAX_REGISTRATIONS_PER_REQUEST);
+        }
+
+        CheckedBatch checkedBatch = new CheckedBatch(requests);
+        BatchRegistrationResult[] results = checkedBatch.results;
+
+        // parse everything up front, so invalid items are rejected before we do any real work.
+        Map<String, SubjectGroup> subjectGroups = checkedBatch.subjectGroups;
+        for(int i = 0; i < requests.size(); i++) {
+            BatchRegistration request = requests.get(i);
+            if(request == null) {
+                results[i] = BatchRegistrationResult.failure(null, 422, "Missing subject or schema");
+                continue;
+            }
+            if(request.subject == null || request.schema == null) {
+                results[i] = BatchRegistrationResult.failure(request.subject, 422, "Missing subject or schema");
+                continue;
+            }
+            SchemaType schemaType = null;
+            if(request.schemaType != null) {
+                schemaType = SchemaType.forName(request.schemaType);
+                if(schemaType == null) {
+                    results[i] = BatchRegistrationResult.failure(request.subject, 422, "Unknown schema type");
+                    continue;
+                }
+            }
+            CanonicalSchema canonicalSchema;
+            try {
+                canonicalSchema = storageManager.canonicalize(request.schema, schemaType);
+            } catch (IllegalArgumentException e) {
+                results[i] = BatchRegistrationResult.failure(request.subject, 422, "Invalid schema");
+                continue;
+            }
+            SubjectGroup subjectGroup = subjectGroups.computeIfAbsent(request.subject, SubjectGroup::new);
+            subjectGroup.indexes.add(i);
+            subjectGroup.canonicalSchemas.add(canonicalSchema);
+        }
+
+        // the reads are done here, as the checks run without a storage context.
+        List<Runnable> checks = new ArrayList<>();
+        for(SubjectGroup subjectGroup : subjectGroups.values()) {
+            subjectGroup.checkBasis = schemaCompatibilityResource.getCheckBasis(subjectGroup.subject);
+            checks.add(() -> check(subjectGroup, subjectGroup.checkBasis, results));
+        }
+        compatibilityExecutor.invokeAll(checks);
+
+        return checkedBatch;
+    }
+
+    // runs on the StorageExecutor.
+    private List<BatchRegistrationResult> register(CheckedBatch checkedBatch) {
+        BatchRegistrationResult[] results = checkedBatch.results;
+        Map<String, SubjectGroup> subjectGroups = checkedBatch.subjectGroups;
+
+        // hold all the subject locks across the writes, and any rechecks, as for a single registration.
+        List<Lock> locks = new ArrayList<>();
+        for(Lock lock : storageManager.getSubjectLocks(subjectGroups.keySet())) {
+            lock.lock();
+            locks.add(lock);
+        }
+        try {
+            for(SubjectGroup subjectGroup : subjectGroups.values()) {
+                SchemaCompatibilityResource.CheckBasis checkBasis = schemaCompatibilityResource.getCheckBasis(subjectGroup.subject);
+                if(!checkBasis.isSameAs(subjectGroup.checkBasis)) {
+                    for(int index : subjectGroup.indexes) {
+                        results[index] = null;
+                    }
+                    check(subjectGroup, checkBasis, results);
+                }
+            }
+
+            List<StorageManager.Registration> registrations = new ArrayList<>();
+            List<Integer> registrationIndexes = new ArrayList<>();
+            for(SubjectGroup subjectGroup : subjectGroups.values()) {
+                for(int i = 0; i < subjectGroup.indexes.size(); i++) {
+                    int index = subjectGroup.indexes.get(i);
+                    if(results[index] == null) {
+                        registrations.add(new StorageManager.Registration(subjectGroup.subject, subjectGroup.canonicalSchemas.get(i)));
+                        registrationIndexes.add(index);
+                    }
+                }
+            }
+
+            if(!registrations.isEmpty()) {
+                List<Integer> schemaIds = storageManager.register(registrations);
+                for(int i = 0; i < schemaIds.size(); i++) {
+                    int index = registrationIndexes.get(i);
+                    results[index] = BatchRegistrationResult.success(checkedBatch.requests.get(index).subject, schemaIds.get(i));
+                }
+            }
+        } finally {
+            for(int i = locks.size()-1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    // check each item of the group against the stored versions and the group's earlier accepted items.
+    private void check(SubjectGroup subjectGroup, SchemaCompatibilityResource.CheckBasis checkBasis, BatchRegistrationResult[] results) {
+        List<SchemaEntity> schemaEntities = new ArrayList<>(checkBasis.schemaEntities);
+        for(int i = 0; i < subjectGroup.indexes.size(); i++) {
+            int index = subjectGroup.indexes.get(i);
+            CanonicalSchema canonicalSchema = subjectGroup.canonicalSchemas.get(i);
+
+            boolean isCompatible;
+            try {
+                isCompatible = schemaEntities.isEmpty() ||
+                        compatibilityChecker.isCompatible(checkBasis.level, schemaEntities, canonicalSchema.getContent());
+            } catch (RuntimeException e) {
+                logger.debugv(e, "compatibility check failed for {0}", subjectGroup.subject);
+                isCompatible = false;
+            }
+
+            if(isCompatible) {
+                schemaEntities.add(new SchemaEntity(canonicalSchema));
+            } else {
+                results[index] = BatchRegistrationResult.failure(subjectGroup.subject, 400, "incompatible schema");
+            }
+        }
+    }
+}
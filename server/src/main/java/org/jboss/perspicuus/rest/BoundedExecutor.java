@@ -0,0 +1,242 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.jboss.logging.Logger;
+import org.jboss.perspicuus.storage.StorageManager;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.control.RequestContextController;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs the work of asynchronous resource methods on a pool of its own, with a bounded queue.
+ * When both are full, requests are refused at once with 503 and a Retry-After header, rather than piling up.
+ *
+ * Until started, work is run on the calling thread instead.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public abstract class BoundedExecutor {
+
+    private static final Logger logger = Logger.getLogger(BoundedExecutor.class);
+
+    static final long RETRY_AFTER_SECONDS = 1;
+
+    @Inject
+    StorageManager storageManager;
+
+    @Inject
+    Instance<RequestContextController> requestContextControllers;
+
+    private String name;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    protected void start(String name, int poolSize, int capacity) {
+        this.name = name;
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), runnable -> {
+                    Thread thread = new Thread(runnable, "perspicuus-"+name+"-"+threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        logger.infov("{0} executor threads={1} queue-depth={2}", name, poolSize, capacity);
+    }
+
+    @PreDestroy
+    public void close() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isStarted() {
+        return executor != null;
+    }
+
+    /**
+     * Run the task with a storage context of its own, and resume the response with its result.
+     * The calling request's storage context isn't carried over, as on the pool the task runs in a request context of its own.
+     *
+     * @param asyncResponse
+     * @param readOnly as for the storage context of a @ReadOnly resource method.
+     * @param task
+     */
+    public void submit(AsyncResponse asyncResponse, boolean readOnly, Callable<?> task) {
+        execute(asyncResponse, () -> callInContext(readOnly, task));
+    }
+
+    /**
+     * Run the task with a read-only storage context of its own, then hand its result to the next task,
+     * run with a writable one on the given executor, and resume the response with that one's result.
+     * For work that reads and computes here, but then blocks on storage, which belongs on a pool sized for that.
+     * A failure of either task, or refusal by either executor, resumes the response at once.
+     *
+     * @param asyncResponse
+     * @param task
+     * @param next the executor for the nextTask.
+     * @param nextTask
+     * @param <T>
+     */
+    public <T> void submit(AsyncResponse asyncResponse, Callable<T> task, BoundedExecutor next, Function<? super T, ?> nextTask) {
+        dispatch(asyncResponse, () -> {
+            T result;
+            try {
+                result = callInContext(true, task);
+            } catch (Throwable e) {
+                asyncResponse.resume(e);
+                return;
+            }
+            next.submit(asyncResponse, false, () -> nextTask.apply(result));
+        });
+    }
+
+    /**
+     * Run the tasks in parallel and wait for them all, for fanning out work already running on the pool.
+     * Tasks are offered to the pool, but any still waiting in its queue when needed are run by the caller instead,
+     * so the caller never waits on a task that's queued behind it, and a full pool just means less parallelism.
+     * The tasks get no storage context, so should work only on what the caller has read for them.
+     *
+     * @param tasks
+     */
+    public void invokeAll(List<? extends Runnable> tasks) {
+        List<FutureTask<Void>> futureTasks = new ArrayList<>(tasks.size());
+        for(Runnable task : tasks) {
+            FutureTask<Void> futureTask = new FutureTask<>(task, null);
+            futureTasks.add(futureTask);
+            // the first is kept for the caller, which would otherwise sit idle waiting.
+            if(executor != null && futureTasks.size() > 1) {
+                try {
+                    executor.execute(futureTask);
+                } catch (RejectedExecutionException e) {
+                    // left for the caller.
+                }
+            }
+        }
+        // a no-op for those a pool thread has already started or finished.
+        for(FutureTask<Void> futureTask : futureTasks) {
+            futureTask.run();
+        }
+        for(FutureTask<Void> futureTask : futureTasks) {
+            try {
+                futureTask.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                if(cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    // resource beans without an explicit scope are request scoped, so those injected into others need an active context.
+    // On the calling thread it's already active, in which case the controller leaves it be.
+    private <T> T callInContext(boolean readOnly, Callable<T> task) throws Exception {
+        RequestContextController requestContextController = requestContextControllers.get();
+        boolean activated = requestContextController.activate();
+        try {
+            storageManager.contextInit(readOnly);
+            try {
+                return task.call();
+            } finally {
+                storageManager.contextCleanup();
+            }
+        } finally {
+            if(activated) {
+                requestContextController.deactivate();
+            }
+            requestContextControllers.destroy(requestContextController);
+        }
+    }
+
+    void execute(AsyncResponse asyncResponse, Callable<?> task) {
+        dispatch(asyncResponse, () -> {
+            Object result;
+            try {
+                result = task.call();
+            } catch (Throwable e) {
+                // mapped to a response as if thrown by the resource method
+                asyncResponse.resume(e);
+                return;
+            }
+            asyncResponse.resume(result);
+        });
+    }
+
+    // run on the pool, which is responsible for resuming the response, unless the pool is full, in which case refuse it.
+    private void dispatch(AsyncResponse asyncResponse, Runnable runnable) {
+        if(executor == null) {
+            runnable.run();
+            return;
+        }
+
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            logger.debugv("{0} executor saturated, rejecting request", name);
+            asyncResponse.resume(new ServiceUnavailableException(RETRY_AFTER_SECONDS));
+        }
+    }
+
+    public static class ExecutorStatistics {
+        public final int threads;
+        public final int activeCount;
+        public final int queued;
+        public final int queueCapacity;
+        public final long completedCount;
+        public final long rejectedCount;
+
+        public ExecutorStatistics(int threads, int activeCount, int queued, int queueCapacity, long completedCount, long rejectedCount) {
+            this.threads = threads;
+            this.activeCount = activeCount;
+            this.queued = queued;
+            this.queueCapacity = queueCapacity;
+            this.completedCount = completedCount;
+            this.rejectedCount = rejectedCount;
+        }
+    }
+
+    /**
+     * @return the pool's activity, or null if not started.
+     */
+    public ExecutorStatistics getStatistics() {
+        if(executor == null) {
+            return null;
+        }
+        int queued = executor.getQueue().size();
+        return new ExecutorStatistics(executor.getMaximumPoolSize(), executor.getActiveCount(), queued,
+                queued + executor.getQueue().remainingCapacity(), executor.getCompletedTaskCount(), rejectedCount.get());
+    }
+}
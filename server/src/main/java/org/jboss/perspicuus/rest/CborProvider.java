@@ -0,0 +1,32 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.jaxrs.cbor.JacksonCBORProvider;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Reads and writes entities as CBOR (RFC 7049), a binary equivalent of JSON that is more compact and
+ * cheaper to encode, for clients that negotiate it in preference to JSON.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@Provider
+@Consumes({MediaTypes.SCHEMAREGISTRY_V1_CBOR, MediaTypes.APPLICATION_CBOR})
+@Produces({MediaTypes.SCHEMAREGISTRY_V1_CBOR, MediaTypes.APPLICATION_CBOR})
+public class CborProvider extends JacksonCBORProvider {
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Runs compatibility checks, including those of registrations, off the request threads.
+ *
+ * Checks are CPU bound and may take a while for large schemas or long version histories, so the pool is
+ * sized to the cores and its queue is bounded. When both are full, requests are refused with 503,
+ * rather than piling up and starving the lookups, which stay on the request threads.
+ * Registrations are written on the StorageExecutor once checked, so never hold these threads waiting on the database.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class CompatibilityExecutor extends BoundedExecutor {
+
+    @Inject
+    @ConfigurationValue("perspicuus.compatibility-executor.threads")
+    Integer threads;
+
+    @Inject
+    @ConfigurationValue("perspicuus.compatibility-executor.queue-depth")
+    Integer queueDepth;
+
+    @PostConstruct
+    public void init() {
+        start("compatibility",
+                threads == null || threads < 1 ? Runtime.getRuntime().availableProcessors() : threads,
+                queueDepth == null || queueDepth < 1 ? 100 : queueDepth);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+/**
+ * A response entity that is already in its serialized JSON form, written out verbatim by EncodedJsonWriter.
+ * The bytes may be shared between responses, so mustn't be modified.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public final class EncodedJson {
+
+    private final byte[] bytes;
+
+    public EncodedJson(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return bytes.length;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes pre-serialized JSON responses straight to the output stream, bypassing the JSON provider.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@Provider
+@Produces({"application/vnd.schemaregistry.v1+json", "application/vnd.schemaregistry+json", "application/json"})
+public class EncodedJsonWriter implements MessageBodyWriter<EncodedJson> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == EncodedJson.class;
+    }
+
+    @Override
+    public long getSize(EncodedJson encodedJson, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return encodedJson.getLength();
+    }
+
+    @Override
+    public void writeTo(EncodedJson encodedJson, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream outputStream) throws IOException {
+        // getSize is advisory only as of JAX-RS 2.0, so set the length explicitly to avoid chunked encoding,
+        // unless a content encoding will change it.
+        if(!httpHeaders.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            httpHeaders.putSingle(HttpHeaders.CONTENT_LENGTH, encodedJson.getLength());
+        }
+        outputStream.write(encodedJson.getBytes());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jboss.perspicuus.storage.SchemaEntity;
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Holds the serialized JSON responses for schema lookups by id, so that repeat lookups of large schemas
+ * don't need to escape and encode the schema text again on every request.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class EncodedSchemaCache {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // bounded by total response size rather than entry count, as schemas vary from tens of bytes to tens of KB.
+    @Inject
+    @ConfigurationValue("perspicuus.cache.encoded.megabytes")
+    Integer encodedCacheMegabytes;
+
+    // schema id -> response body. As with the content, it never changes.
+    private Cache<Integer, EncodedJson> encodedCache;
+
+    @PostConstruct
+    public void init() {
+        encodedCache = CacheBuilder.newBuilder()
+                .maximumWeight((encodedCacheMegabytes == null ? 64 : encodedCacheMegabytes) * 1024L * 1024L)
+                .weigher((Integer id, EncodedJson encodedJson) -> encodedJson.getLength())
+                .recordStats()
+                .build();
+    }
+
+    public CacheStats getStats() {
+        return encodedCache.stats();
+    }
+
+    public long getSize() {
+        return encodedCache.size();
+    }
+
+    /**
+     * @param schemaEntity
+     * @return the body of a GET /schemas/ids/{id} response for the schema, as would be serialized from a TerseSchema.
+     */
+    public EncodedJson getSchemaResponse(SchemaEntity schemaEntity) {
+        EncodedJson encodedJson = encodedCache.getIfPresent(schemaEntity.getId());
+        if(encodedJson == null) {
+            encodedJson = encode(schemaEntity.getContent());
+            encodedCache.put(schemaEntity.getId(), encodedJson);
+        }
+        return encodedJson;
+    }
+
+    static EncodedJson encode(String schema) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(schema.length()+16);
+        try(JsonGenerator jsonGenerator = JSON_FACTORY.createGenerator(byteArrayOutputStream)) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeStringField("schema", schema);
+            jsonGenerator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new EncodedJson(byteArrayOutputStream.toByteArray());
+    }
+}
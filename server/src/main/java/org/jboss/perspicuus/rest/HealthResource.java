@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import io.swagger.annotations.*;
+import org.jboss.perspicuus.storage.RegistryWarmup;
+
+import javax.annotation.security.PermitAll;
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * REST API for container orchestration probes. Unauthenticated, as probes have no credentials.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@Api(value = "health")
+@Path("/health")
+@Produces(MediaType.APPLICATION_JSON)
+@PermitAll
+public class HealthResource {
+
+    @Inject
+    RegistryWarmup registryWarmup;
+
+    @ApiOperation(value = "Determine if the server is ready to receive traffic, i.e. has finished warming up")
+    @ApiResponses(value = {
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    })
+    @GET
+    @Path("/ready")
+    @ReadOnly
+    public Response getReadiness() {
+        boolean ready = registryWarmup.isReady();
+
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put("status", ready ? "UP" : "DOWN");
+        result.put("warmupComplete", registryWarmup.isComplete());
+
+        return Response.status(ready ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE).entity(result).build();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+/**
+ * HTTP caching directives for read responses, so clients and intermediaries can reuse them.
+ *
+ * Schemas are immutable, so a schema's responses are validated by strong ETags derived from its fingerprint
+ * and may be cached for long periods. Specific subject versions change only by deletion, and 'latest' whenever
+ * the subject does, so those are cached more briefly and then revalidated.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class HttpCachePolicy {
+
+    // responses require authentication, so by default only the client's own cache may keep them.
+    // Enable only where shared caches are trusted to enforce access control.
+    @Inject
+    @ConfigurationValue("perspicuus.http.cache.public")
+    Boolean shared;
+
+    @Inject
+    @ConfigurationValue("perspicuus.http.cache.schema-max-age-seconds")
+    Integer schemaMaxAgeSeconds;
+
+    @Inject
+    @ConfigurationValue("perspicuus.http.cache.version-max-age-seconds")
+    Integer versionMaxAgeSeconds;
+
+    @Inject
+    @ConfigurationValue("perspicuus.http.cache.latest-max-age-seconds")
+    Integer latestMaxAgeSeconds;
+
+    private CacheControl schemaCacheControl;
+    private CacheControl versionCacheControl;
+    private CacheControl latestCacheControl;
+
+    @PostConstruct
+    public void init() {
+        boolean isShared = shared != null && shared;
+
+        schemaCacheControl = cacheControl(isShared, schemaMaxAgeSeconds == null ? 31536000 : schemaMaxAgeSeconds);
+        schemaCacheControl.getCacheExtension().put("immutable", null);
+
+        versionCacheControl = cacheControl(isShared, versionMaxAgeSeconds == null ? 300 : versionMaxAgeSeconds);
+
+        latestCacheControl = cacheControl(isShared, latestMaxAgeSeconds == null ? 0 : latestMaxAgeSeconds);
+        latestCacheControl.setMustRevalidate(true);
+    }
+
+    private CacheControl cacheControl(boolean isShared, int maxAgeSeconds) {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(!isShared);
+        cacheControl.setMaxAge(maxAgeSeconds);
+        return cacheControl;
+    }
+
+    public CacheControl forSchema() {
+        return schemaCacheControl;
+    }
+
+    public CacheControl forVersion(boolean isLatest) {
+        return isLatest ? latestCacheControl : versionCacheControl;
+    }
+
+    // a binary encoding is a different representation, so mustn't share a strong ETag with the JSON.
+    private static String representation(MediaType mediaType) {
+        return MediaTypes.isCbor(mediaType) ? "-cbor" : "";
+    }
+
+    public static EntityTag schemaTag(String hash, MediaType mediaType) {
+        return new EntityTag(hash+representation(mediaType));
+    }
+
+    // the same schema may recur in a subject, re-registered after deletion, so the version is also significant.
+    public static EntityTag versionTag(String hash, int version, MediaType mediaType) {
+        return new EntityTag(hash+"-"+version+representation(mediaType));
+    }
+
+    /**
+     * Respond to a conditional GET without the entity, if the client's copy is current.
+     *
+     * @param request
+     * @param entityTag
+     * @param cacheControl
+     * @return a 304 response, or null if the entity should be sent.
+     */
+    public static Response notModified(Request request, EntityTag entityTag, CacheControl cacheControl) {
+        Response.ResponseBuilder responseBuilder = request.evaluatePreconditions(entityTag);
+        if(responseBuilder == null) {
+            return null;
+        }
+        return responseBuilder.cacheControl(cacheControl).build();
+    }
+
+    public static Response ok(Object entity, MediaType mediaType, EntityTag entityTag, CacheControl cacheControl) {
+        return Response.ok(entity, mediaType).tag(entityTag).cacheControl(cacheControl).build();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Variant;
+import java.util.List;
+
+/**
+ * Response media types, for resource methods that construct the response body themselves
+ * and so must select its encoding without the help of a MessageBodyWriter.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+final class MediaTypes {
+
+    static final String SCHEMAREGISTRY_V1_JSON = "application/vnd.schemaregistry.v1+json";
+    static final String SCHEMAREGISTRY_V1_CBOR = "application/vnd.schemaregistry.v1+cbor";
+    static final String APPLICATION_CBOR = "application/cbor";
+
+    // in order of preference where the client's Accept header has no preference, as for @Produces.
+    private static final List<Variant> VARIANTS = Variant.mediaTypes(
+            MediaType.valueOf(SCHEMAREGISTRY_V1_JSON),
+            MediaType.valueOf("application/vnd.schemaregistry+json"),
+            MediaType.APPLICATION_JSON_TYPE,
+            MediaType.valueOf(SCHEMAREGISTRY_V1_CBOR),
+            MediaType.valueOf(APPLICATION_CBOR)).build();
+
+    private MediaTypes() {}
+
+    /**
+     * @param request
+     * @return the media type best matching the request's Accept header.
+     */
+    static MediaType select(Request request) {
+        Variant variant = request.selectVariant(VARIANTS);
+        return variant == null ? VARIANTS.get(0).getMediaType() : variant.getMediaType();
+    }
+
+    static boolean isCbor(MediaType mediaType) {
+        return mediaType.getSubtype().equals("cbor") || mediaType.getSubtype().endsWith("+cbor");
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses response bodies with gzip or deflate, per the request's Accept-Encoding header.
+ * Bodies smaller than a threshold are sent as-is, as compression would gain little for the CPU it costs.
+ *
+ * A compressed body is a different representation, so its ETag is suffixed with the encoding.
+ * The suffix is removed from If-None-Match on the way in, and restored on any resulting 304 on the way out,
+ * so resource methods deal only in the unencoded ETags. That happens after matching, not before, as resteasy
+ * applies no WriterInterceptor from a @PreMatching class.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER)
+public class ResponseCompressionInterceptor implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    // request property holding the encoding suffix removed from If-None-Match, if any.
+    private static final String ETAG_SUFFIX_PROPERTY = ResponseCompressionInterceptor.class.getName()+".etagSuffix";
+
+    @Inject
+    @ConfigurationValue("perspicuus.http.compression.enabled")
+    Boolean enabled;
+
+    @Inject
+    @ConfigurationValue("perspicuus.http.compression.min-bytes")
+    Integer minBytes;
+
+    @Context
+    HttpHeaders httpHeaders;
+
+    private boolean isEnabled() {
+        return enabled == null || enabled;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if(!isEnabled()) {
+            return;
+        }
+        String ifNoneMatch = requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if(ifNoneMatch == null) {
+            return;
+        }
+        for(String encoding : new String[] {GZIP, DEFLATE}) {
+            String suffix = "-"+encoding+"\"";
+            if(ifNoneMatch.contains(suffix)) {
+                requestContext.getHeaders().putSingle(HttpHeaders.IF_NONE_MATCH, ifNoneMatch.replace(suffix, "\""));
+                requestContext.setProperty(ETAG_SUFFIX_PROPERTY, "-"+encoding);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        String suffix = (String)requestContext.getProperty(ETAG_SUFFIX_PROPERTY);
+        if(suffix != null && responseContext.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+            retag(responseContext.getHeaders(), suffix);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        MultivaluedMap<String,Object> headers = context.getHeaders();
+        if(!isEnabled() || headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            context.proceed();
+            return;
+        }
+
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String encoding = selectEncoding(httpHeaders.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if(encoding == null) {
+            context.proceed();
+            return;
+        }
+
+        OutputStream outputStream = context.getOutputStream();
+        ThresholdCompressingOutputStream compressingOutputStream = new ThresholdCompressingOutputStream(
+                outputStream, minBytes == null ? 1024 : minBytes, encoding, headers);
+        context.setOutputStream(compressingOutputStream);
+        try {
+            context.proceed();
+            compressingOutputStream.finish();
+        } finally {
+            context.setOutputStream(outputStream);
+        }
+    }
+
+    /**
+     * @param acceptEncoding
+     * @return the preferred of gzip or deflate acceptable to the client, or null for neither.
+     */
+    static String selectEncoding(String acceptEncoding) {
+        if(acceptEncoding == null) {
+            return null;
+        }
+        Float gzipQuality = null;
+        Float deflateQuality = null;
+        Float wildcardQuality = null;
+        for(String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            float quality = 1;
+            for(int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if(parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if(coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzipQuality = quality;
+            } else if(coding.equals(DEFLATE)) {
+                deflateQuality = quality;
+            } else if(coding.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+        // a wildcard covers only the codings not named explicitly.
+        float gzip = gzipQuality != null ? gzipQuality : (wildcardQuality != null ? wildcardQuality : 0);
+        float deflate = deflateQuality != null ? deflateQuality : (wildcardQuality != null ? wildcardQuality : 0);
+        if(gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    private static void retag(MultivaluedMap<String,Object> headers, String suffix) {
+        Object tag = headers.getFirst(HttpHeaders.ETAG);
+        if(tag != null) {
+            EntityTag entityTag = tag instanceof EntityTag ? (EntityTag)tag : EntityTag.valueOf(tag.toString());
+            headers.putSingle(HttpHeaders.ETAG, new EntityTag(entityTag.getValue()+suffix, entityTag.isWeak()));
+        }
+    }
+
+    /**
+     * Buffers the start of the body and, once that exceeds the threshold, switches to writing it compressed.
+     * Nothing reaches the underlying stream until the decision is made, so the headers may still be changed.
+     */
+    private static class ThresholdCompressingOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+        private final int threshold;
+        private final String encoding;
+        private final MultivaluedMap<String,Object> headers;
+
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private DeflaterOutputStream compressor;
+
+        ThresholdCompressingOutputStream(OutputStream outputStream, int threshold, String encoding, MultivaluedMap<String,Object> headers) {
+            this.outputStream = outputStream;
+            this.threshold = threshold;
+            this.encoding = encoding;
+            this.headers = headers;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(compressor != null) {
+                compressor.write(b, off, len);
+                return;
+            }
+            buffer.write(b, off, len);
+            if(buffer.size() >= threshold) {
+                headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+                retag(headers, "-"+encoding);
+                compressor = encoding.equals(GZIP) ? new GZIPOutputStream(outputStream, 8192) : new DeflaterOutputStream(outputStream);
+                buffer.writeTo(compressor);
+                buffer = null;
+            }
+        }
+
+        // don't push partially compressed blocks out early, as flushes are frequent and a small block compresses poorly.
+        @Override
+        public void flush() throws IOException {
+            if(compressor == null) {
+                return;
+            }
+            outputStream.flush();
+        }
+
+        // the container owns the underlying stream, so it's ended but not closed.
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        void finish() throws IOException {
+            if(compressor != null) {
+                compressor.finish();
+            } else if(buffer != null) {
+                buffer.writeTo(outputStream);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -14,16 +14,18 @@ package org.jboss.perspicuus.rest;
 
 import io.swagger.annotations.*;
 import org.jboss.logging.Logger;
+import org.jboss.perspicuus.storage.CompatibilityChecker;
 import org.jboss.perspicuus.storage.SchemaEntity;
-import org.jboss.perspicuus.parsers.SchemaParser;
 import org.jboss.perspicuus.storage.StorageManager;
 import org.jboss.perspicuus.storage.SubjectEntity;
 
 import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * REST API for the schema compatibility functions.
@@ -38,10 +40,13 @@ import java.util.stream.Collectors;
 @Path("/")
 @Produces({"application/vnd.schemaregistry.v1+json",
         "application/vnd.schemaregistry+json; qs=0.9",
-        "application/json; qs=0.5"})
+        "application/json; qs=0.5",
+        "application/vnd.schemaregistry.v1+cbor; qs=0.4",
+        "application/cbor; qs=0.3"})
 @Consumes({"application/vnd.schemaregistry.v1+json",
         "application/vnd.schemaregistry+json",
-        "application/json", "application/octet-stream"})
+        "application/json", "application/octet-stream",
+        "application/vnd.schemaregistry.v1+cbor", "application/cbor"})
 public class SchemaCompatibilityResource {
 
     private static final Logger logger = Logger.getLogger(SchemaCompatibilityResource.class);
@@ -52,6 +57,15 @@ public class SchemaCompatibilityResource {
     @Inject
     SchemaRegistryResource schemaRegistryResource;
 
+    @Inject
+    CompatibilityChecker compatibilityChecker;
+
+    @Inject
+    CompatibilityExecutor compatibilityExecutor;
+
+    @Inject
+    StorageExecutor storageExecutor;
+
     private final String GLOBAL_SUBJECT_KEY = "_GLOBALCONFIG";
     private final String DEFAULT_COMPATIBILITY = "NONE";
 
@@ -63,36 +77,71 @@ public class SchemaCompatibilityResource {
         }
     }
 
-    @ApiOperation(value = "Test compatibility of the provided schema against an existing one from the repository")
-    @ApiResponses(
-            @ApiResponse(code = 404, message = "Not Found")
-    )
+    @ApiOperation(value = "Test compatibility of the provided schema against an existing one from the repository",
+            response = CompatibilityReport.class)
+    @ApiResponses({
+            @ApiResponse(code = 404, message = "Not Found"),
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    })
     @POST
     @Path("/compatibility/subjects/{subject}/versions/{version}")
     @RolesAllowed("catalog_user")
-    public CompatibilityReport determineCompatibility(@PathParam("subject") String subject,
-                                                      @PathParam("version") String version,
-                                                      SchemaRegistryResource.TerseSchema request) {
+    @ReadOnly
+    public void determineCompatibility(@PathParam("subject") String subject,
+                                       @PathParam("version") String version,
+                                       SchemaRegistryResource.TerseSchema request,
+                                       @Suspended AsyncResponse asyncResponse) {
         logger.debugv("determineCompatibility({0} {1} {2})", subject, version, request.schema);
 
-        SchemaRegistryResource.VerboseSchema verboseSchema = schemaRegistryResource.getSchemaInScope(subject, version);
+        compatibilityExecutor.submit(asyncResponse, true, () -> checkCompatibility(subject, version, request.schema));
+    }
+
+    // runs on the CompatibilityExecutor.
+    private CompatibilityReport checkCompatibility(String subject, String version, String proposedSchema) {
+        SchemaRegistryResource.VerboseSchema verboseSchema = schemaRegistryResource.findSchemaInScope(subject, version);
         String level = getInternalCompatibility(subject);
 
-        boolean isCompatible = verboseSchema.schemaEntity.isCompatibleWith(level, request.schema);
+        boolean isCompatible = compatibilityChecker.isCompatible(level, Collections.singletonList(verboseSchema.schemaEntity), proposedSchema);
         CompatibilityReport compatibilityReport = new CompatibilityReport(isCompatible);
 
         return compatibilityReport;
     }
 
-    public boolean determineCompatibility(String subject, String proposedSchema) {
-        List<SchemaEntity> existingSchemaEntities = storageManager.getSchemas(subject);
-        if(existingSchemaEntities.isEmpty()) {
+    /**
+     * What a proposed schema is checked against: the subject's compatibility level and its live versions' schemas.
+     * Registrations check without the subject lock, then take it only to write, provided this hasn't changed meanwhile.
+     */
+    public static class CheckBasis {
+        public final String level;
+        public final List<SchemaEntity> schemaEntities;
+
+        CheckBasis(String level, List<SchemaEntity> schemaEntities) {
+            this.level = level;
+            this.schemaEntities = schemaEntities;
+        }
+
+        public boolean isSameAs(CheckBasis other) {
+            if(!level.equals(other.level) || schemaEntities.size() != other.schemaEntities.size()) {
+                return false;
+            }
+            for(int i = 0; i < schemaEntities.size(); i++) {
+                if(!schemaEntities.get(i).getId().equals(other.schemaEntities.get(i).getId())) {
+                    return false;
+                }
+            }
             return true;
         }
-        List<String> existingSchemaStrings = existingSchemaEntities.stream().map(se -> se.getContent()).collect(Collectors.toList());
-        SchemaParser schemaParser = existingSchemaEntities.get(existingSchemaEntities.size()-1).getSchemaType().getSchemaParser();
-        String level = getInternalCompatibility(subject);
-        boolean result = schemaParser.isCompatibleWith(level, existingSchemaStrings, proposedSchema);
+    }
+
+    public CheckBasis getCheckBasis(String subject) {
+        return new CheckBasis(getInternalCompatibility(subject), storageManager.getSchemas(subject));
+    }
+
+    public boolean determineCompatibility(CheckBasis checkBasis, String proposedSchema) {
+        if(checkBasis.schemaEntities.isEmpty()) {
+            return true;
+        }
+        boolean result = compatibilityChecker.isCompatible(checkBasis.level, checkBasis.schemaEntities, proposedSchema);
         return result;
     }
 
@@ -126,12 +175,13 @@ public class SchemaCompatibilityResource {
     @GET
     @Path("/config/{subject}")
     @RolesAllowed("catalog_user")
+    @ReadOnly
     public CompatibilityLevel getCompatibility(@PathParam("subject") String subject) {
         logger.debugv("getCompatibility {0}", subject);
 
         SubjectEntity subjectEntity = storageManager.findSubject(subject);
 
-        if(subjectEntity == null || subjectEntity.isDeleted()) {
+        if(subjectEntity == null || storageManager.isSubjectDeleted(subject)) {
             throw new NotFoundException();
         }
 
@@ -144,13 +194,22 @@ public class SchemaCompatibilityResource {
         return compatibilityLevel;
     }
 
-    @ApiOperation(value = "Configure a subject's schema compatibility setting")
+    @ApiOperation(value = "Configure a subject's schema compatibility setting", response = Compatibility.class)
+    @ApiResponses(
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    )
     @PUT
     @Path("/config/{subject}")
     @RolesAllowed("catalog_user")
-    public Compatibility setCompatibility(@PathParam("subject") String subject, Compatibility requestedCompatibility) {
+    public void setCompatibility(@PathParam("subject") String subject, Compatibility requestedCompatibility,
+                                 @Suspended AsyncResponse asyncResponse) {
         logger.debugv("setCompatibility {0} {1}", subject, requestedCompatibility == null ? "null" : requestedCompatibility.compatibility);
 
+        storageExecutor.submit(asyncResponse, false, () -> setCompatibility(subject, requestedCompatibility));
+    }
+
+    // runs on the StorageExecutor.
+    private Compatibility setCompatibility(String subject, Compatibility requestedCompatibility) {
         if(!isValidCompatibilityLevel(requestedCompatibility.compatibility)) {
             throw new ClientErrorException("Bad compatibility level", 422);
         }
@@ -176,6 +235,7 @@ public class SchemaCompatibilityResource {
     @GET
     @Path("/config")
     @RolesAllowed("catalog_user")
+    @ReadOnly
     public CompatibilityLevel getDefaultCompatibility() {
         logger.debugv("getDefaultCompatibility");
 
@@ -190,11 +250,16 @@ public class SchemaCompatibilityResource {
         return compatibilityLevel;
     }
 
-    @ApiOperation(value = "Set the global default schema compatibility setting")
+    @ApiOperation(value = "Set the global default schema compatibility setting", response = Compatibility.class)
+    @ApiResponses(
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    )
     @PUT
     @Path("/config")
     @RolesAllowed("catalog_user")
-    public Compatibility setDefaultCompatibility(Compatibility requestedCompatibility) {
-        return setCompatibility(GLOBAL_SUBJECT_KEY, requestedCompatibility);
+    public void setDefaultCompatibility(Compatibility requestedCompatibility, @Suspended AsyncResponse asyncResponse) {
+        logger.debugv("setDefaultCompatibility {0}", requestedCompatibility == null ? "null" : requestedCompatibility.compatibility);
+
+        storageExecutor.submit(asyncResponse, false, () -> setCompatibility(GLOBAL_SUBJECT_KEY, requestedCompatibility));
     }
 }
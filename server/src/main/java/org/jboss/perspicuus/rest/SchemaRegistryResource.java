@@ -13,20 +13,33 @@
 package org.jboss.perspicuus.rest;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import io.swagger.annotations.*;
 import org.jboss.logging.Logger;
 import org.jboss.perspicuus.storage.StorageManager;
 import org.jboss.perspicuus.storage.SchemaEntity;
+import org.jboss.perspicuus.storage.SchemaType;
 import org.jboss.perspicuus.storage.SubjectEntity;
+import org.jboss.perspicuus.storage.SubjectVersionEntity;
 
 import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
 
 /**
  * REST API for a schema registry.
@@ -42,23 +55,59 @@ import java.util.Set;
 @Path("/")
 @Produces({"application/vnd.schemaregistry.v1+json",
         "application/vnd.schemaregistry+json; qs=0.9",
-        "application/json; qs=0.5"})
+        "application/json; qs=0.5",
+        "application/vnd.schemaregistry.v1+cbor; qs=0.4",
+        "application/cbor; qs=0.3"})
 @Consumes({"application/vnd.schemaregistry.v1+json",
         "application/vnd.schemaregistry+json",
-        "application/json", "application/octet-stream"})
+        "application/json", "application/octet-stream",
+        "application/vnd.schemaregistry.v1+cbor", "application/cbor"})
 public class SchemaRegistryResource {
 
     private static final Logger logger = Logger.getLogger(SchemaRegistryResource.class);
 
+    // the container owns the response stream, so we mustn't close it.
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final JsonFactory CBOR_FACTORY = new CBORFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final int MAX_SCHEMAS_PER_REQUEST = 1000;
+
     @Inject
     StorageManager storageManager;
 
     @Inject
     SchemaCompatibilityResource schemaCompatibilityResource;
 
+    @Inject
+    HttpCachePolicy httpCachePolicy;
+
+    @Inject
+    EncodedSchemaCache encodedSchemaCache;
+
+    @Inject
+    CompatibilityExecutor compatibilityExecutor;
+
+    @Inject
+    StorageExecutor storageExecutor;
+
     // some request/response cases use an unadorned schema representation
     public static class TerseSchema {
         public String schema;
+
+        // optional type for requests, per Confluent's API, in which case the schema must be of it. Absent from responses.
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String schemaType;
+    }
+
+    // some responses need the id of a schema, but have no subject context for it
+    public static class IdentifiedSchema {
+        public final int id;
+        public final String schema;
+
+        public IdentifiedSchema(int id, String schema) {
+            this.id = id;
+            this.schema = schema;
+        }
     }
 
     // some request/response use a schema decorated with context information
@@ -99,14 +148,33 @@ public class SchemaRegistryResource {
         }
     }
 
-    @ApiOperation(value = "Retrieve a schema by id number")
-    @ApiResponses(
+    // for responses streamed directly, rather than serialized by the provider for their media type.
+    private static JsonFactory jsonFactory(MediaType mediaType) {
+        return MediaTypes.isCbor(mediaType) ? CBOR_FACTORY : JSON_FACTORY;
+    }
+
+    private SchemaType resolveSchemaType(TerseSchema request) {
+        if(request.schemaType == null) {
+            return null;
+        }
+        SchemaType schemaType = SchemaType.forName(request.schemaType);
+        if(schemaType == null) {
+            throw new ClientErrorException("Unknown schema type", 422);
+        }
+        return schemaType;
+    }
+
+    @ApiOperation(value = "Retrieve a schema by id number", response = TerseSchema.class,
+            notes = "Cacheable indefinitely, with an ETag for conditional requests.")
+    @ApiResponses({
+            @ApiResponse(code = 304, message = "Not Modified"),
             @ApiResponse(code = 404, message = "Not Found")
-    )
+    })
     @GET
     @Path("/schemas/ids/{id}")
     @RolesAllowed("catalog_user")
-    public TerseSchema getSchema(@PathParam("id") Integer id) {
+    @ReadOnly
+    public Response getSchema(@PathParam("id") Integer id, @Context Request request) {
         logger.debugv("getSchema {0}", id);
 
         SchemaEntity schemaEntity = storageManager.findSchema(id);
@@ -115,9 +183,146 @@ public class SchemaRegistryResource {
             throw new CustomNotFoundException();
         }
 
-        TerseSchema terseSchema = new TerseSchema();
-        terseSchema.schema = schemaEntity.getContent();
-        return terseSchema;
+        MediaType mediaType = MediaTypes.select(request);
+        EntityTag entityTag = HttpCachePolicy.schemaTag(schemaEntity.getHash(), mediaType);
+        Response notModified = HttpCachePolicy.notModified(request, entityTag, httpCachePolicy.forSchema());
+        if(notModified != null) {
+            return notModified;
+        }
+
+        if(MediaTypes.isCbor(mediaType)) {
+            TerseSchema terseSchema = new TerseSchema();
+            terseSchema.schema = schemaEntity.getContent();
+            return HttpCachePolicy.ok(terseSchema, mediaType, entityTag, httpCachePolicy.forSchema());
+        }
+
+        // equivalent to a TerseSchema, but without re-encoding the schema on each request.
+        EncodedJson encodedJson = encodedSchemaCache.getSchemaResponse(schemaEntity);
+        return HttpCachePolicy.ok(encodedJson, mediaType, entityTag, httpCachePolicy.forSchema());
+    }
+
+    @ApiOperation(value = "Retrieve many schemas by id number, e.g. ?ids=1,2,3",
+            notes = "Returns an array of {id, schema}, omitting any ids that are unknown.")
+    @GET
+    @Path("/schemas/ids")
+    @RolesAllowed("catalog_user")
+    @ReadOnly
+    public Response getSchemas(@QueryParam("ids") List<String> ids, @Context Request request) {
+        logger.debugv("getSchemas {0}", ids);
+
+        List<Integer> parsedIds = new ArrayList<>();
+        for(String idList : ids) {
+            for(String id : idList.split(",")) {
+                if(id.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    parsedIds.add(Integer.parseInt(id.trim()));
+                } catch (NumberFormatException e) {
+                    throw new BadRequestException("Invalid schema id "+id);
+                }
+            }
+        }
+
+        return getSchemasFromBody(parsedIds, request);
+    }
+
+    @ApiOperation(value = "Retrieve many schemas by id number, given as an array in the request body",
+            notes = "As for GET, for lists of ids too long to fit comfortably in a URL.")
+    @POST
+    @Path("/schemas/ids")
+    @RolesAllowed("catalog_user")
+    @ReadOnly
+    public Response getSchemasFromBody(List<Integer> ids, @Context Request request) {
+        logger.debugv("getSchemasFromBody {0}", ids);
+
+        if(ids == null) {
+            throw new BadRequestException("Missing schema ids");
+        }
+        if(ids.size() > MAX_SCHEMAS_PER_REQUEST) {
+            throw new BadRequestException("Too many schema ids, limit is "+MAX_SCHEMAS_PER_REQUEST);
+        }
+        if(ids.contains(null)) {
+            throw new BadRequestException("Invalid schema id null");
+        }
+
+        // storage access is done with before we return, so only the serialization is streamed.
+        Collection<SchemaEntity> schemaEntities = storageManager.findSchemas(new LinkedHashSet<>(ids)).values();
+
+        MediaType mediaType = MediaTypes.select(request);
+        JsonFactory jsonFactory = jsonFactory(mediaType);
+
+        StreamingOutput streamingOutput = outputStream -> {
+            try(JsonGenerator jsonGenerator = jsonFactory.createGenerator(outputStream)) {
+                jsonGenerator.writeStartArray();
+                for(SchemaEntity schemaEntity : schemaEntities) {
+                    jsonGenerator.writeStartObject();
+                    jsonGenerator.writeNumberField("id", schemaEntity.getId());
+                    jsonGenerator.writeStringField("schema", schemaEntity.getContent());
+                    jsonGenerator.writeEndObject();
+                }
+                jsonGenerator.writeEndArray();
+            }
+        };
+
+        return Response.ok(streamingOutput, mediaType).build();
+    }
+
+    // some responses identify a version within a subject, without the schema itself
+    public static class SubjectVersion {
+        public final String subject;
+        public final int version;
+
+        public SubjectVersion(String subject, int version) {
+            this.subject = subject;
+            this.version = version;
+        }
+    }
+
+    @ApiOperation(value = "List the (non-deleted) subject versions that use the schema with the given id")
+    @ApiResponses(
+            @ApiResponse(code = 404, message = "Not Found")
+    )
+    @GET
+    @Path("/schemas/ids/{id}/versions")
+    @RolesAllowed("catalog_user")
+    @ReadOnly
+    public List<SubjectVersion> getSchemaVersions(@PathParam("id") Integer id) {
+        logger.debugv("getSchemaVersions {0}", id);
+
+        SchemaEntity schemaEntity = storageManager.findSchema(id);
+
+        if(schemaEntity == null) {
+            throw new CustomNotFoundException();
+        }
+
+        List<SubjectVersionEntity> subjectVersionEntities = storageManager.findUsesOfSchema(id);
+        List<SubjectVersion> subjectVersions = new ArrayList<>(subjectVersionEntities.size());
+        for(SubjectVersionEntity subjectVersionEntity : subjectVersionEntities) {
+            subjectVersions.add(new SubjectVersion(subjectVersionEntity.getSubject(), subjectVersionEntity.getVersion()));
+        }
+
+        return subjectVersions;
+    }
+
+    @ApiOperation(value = "Retrieve an avro schema by its 64 bit Rabin (CRC-64-AVRO) fingerprint")
+    @ApiResponses(
+            @ApiResponse(code = 404, message = "Not Found")
+    )
+    @GET
+    @Path("/schemas/fingerprints/rabin/{fingerprint}")
+    @RolesAllowed("catalog_user")
+    @ReadOnly
+    public IdentifiedSchema getSchemaByRabinFingerprint(@PathParam("fingerprint") long fingerprint) {
+        logger.debugv("getSchemaByRabinFingerprint {0}", fingerprint);
+
+        SchemaEntity schemaEntity = storageManager.findByRabinFingerprint(fingerprint);
+
+        if(schemaEntity == null) {
+            throw new CustomNotFoundException();
+        }
+
+        return new IdentifiedSchema(schemaEntity.getId(), schemaEntity.getContent());
     }
 
     @ApiOperation(value = "Locate a schema within the given subject scope")
@@ -127,46 +332,88 @@ public class SchemaRegistryResource {
     @POST
     @Path("/subjects/{subject}")
     @RolesAllowed("catalog_user")
+    @ReadOnly
     public VerboseSchema scopedSearch(@PathParam("subject") String subject, TerseSchema request) {
         logger.debugv("scopedSearch {0} {1}", subject, request.schema);
 
-        SchemaEntity schemaEntity = storageManager.findByHash(request.schema);
-        SubjectEntity subjectEntity = storageManager.findSubject(subject);
+        SchemaEntity schemaEntity;
+        try {
+            schemaEntity = storageManager.findByHash(request.schema, resolveSchemaType(request));
+        } catch (IllegalArgumentException e) {
+            throw new ClientErrorException("Invalid schema", 422);
+        }
 
-        if(schemaEntity == null || subjectEntity == null) {
+        if(schemaEntity == null) {
             throw new CustomNotFoundException();
         }
 
-        VerboseSchema verboseSchema = new VerboseSchema();
-        int version = -1;
-        for(int i = 0; i < subjectEntity.getSchemaIds().size(); i++) {
-            if(subjectEntity.getSchemaIds().get(i).equals(schemaEntity.getId())) {
-                version = i+1;
-                break;
-            }
-        }
+        SubjectVersionEntity subjectVersionEntity = storageManager.findSubjectVersionBySchemaId(subject, schemaEntity.getId());
 
-        if(version > 0) {
-            verboseSchema.id = schemaEntity.getId();
-            verboseSchema.schema = schemaEntity.getContent();
-            verboseSchema.subject = subject;
-            verboseSchema.version = version;
-        } else {
+        if(subjectVersionEntity == null) {
+            if(storageManager.findSubject(subject) == null) {
+                throw new CustomNotFoundException();
+            }
             throw new NotFoundException();
         }
 
+        VerboseSchema verboseSchema = new VerboseSchema();
+        verboseSchema.id = schemaEntity.getId();
+        verboseSchema.schema = schemaEntity.getContent();
+        verboseSchema.subject = subject;
+        verboseSchema.version = subjectVersionEntity.getVersion();
+
         return verboseSchema;
     }
 
-    @ApiOperation(value = "List all known subjects")
+    @ApiOperation(value = "List known subjects, in name order", response = String.class, responseContainer = "List",
+            notes = "Lists all subjects, unless limited to those with a name prefix, or to those after a name e.g. "
+                    + "the last of a previous page. With a limit, a Link header with rel=\"next\" gives the URL of any next page.")
+    @ApiResponses(
+            @ApiResponse(code = 400, message = "Bad Request")
+    )
     @GET
     @Path("/subjects")
     @RolesAllowed("catalog_user")
-    public Set<String> listSubjectNames() {
-        logger.debugv("listSubjectNames");
+    @ReadOnly
+    public Response listSubjectNames(@QueryParam("prefix") String prefix,
+                                     @QueryParam("after") String after,
+                                     @QueryParam("limit") Integer limit,
+                                     @Context Request request,
+                                     @Context UriInfo uriInfo) {
+        logger.debugv("listSubjectNames {0} {1} {2}", prefix, after, limit);
+
+        if(limit != null && limit < 1) {
+            throw new BadRequestException("Invalid limit "+limit);
+        }
 
-        List<String> resultList = storageManager.listSubjectNames();
-        return new HashSet<>(resultList);
+        // a view of the snapshot, so neither this nor the response body is ever held in memory as a whole.
+        List<String> subjectNames = storageManager.listSubjectNames(prefix, after);
+
+        URI next = null;
+        if(limit != null && subjectNames.size() > limit) {
+            subjectNames = subjectNames.subList(0, limit);
+            next = uriInfo.getRequestUriBuilder().replaceQueryParam("after", subjectNames.get(limit-1)).build();
+        }
+
+        MediaType mediaType = MediaTypes.select(request);
+        JsonFactory jsonFactory = jsonFactory(mediaType);
+        List<String> names = subjectNames;
+
+        StreamingOutput streamingOutput = outputStream -> {
+            try(JsonGenerator jsonGenerator = jsonFactory.createGenerator(outputStream)) {
+                jsonGenerator.writeStartArray();
+                for(String name : names) {
+                    jsonGenerator.writeString(name);
+                }
+                jsonGenerator.writeEndArray();
+            }
+        };
+
+        Response.ResponseBuilder responseBuilder = Response.ok(streamingOutput, mediaType);
+        if(next != null) {
+            responseBuilder.link(next, "next");
+        }
+        return responseBuilder.build();
     }
 
     @ApiOperation(value = "List all (non-deleted) versions for the given subject")
@@ -176,6 +423,7 @@ public class SchemaRegistryResource {
     @GET
     @Path("/subjects/{subject}/versions")
     @RolesAllowed("catalog_user")
+    @ReadOnly
     public List<Integer> listSubjectVersions(@PathParam("subject") String subject) {
         logger.debugv("listSubjectVersions {0}", subject);
 
@@ -185,14 +433,7 @@ public class SchemaRegistryResource {
             throw new CustomNotFoundException();
         }
 
-        List<Integer> schemaIds = subjectEntity.getSchemaIds();
-        ArrayList<Integer> versions = new ArrayList<>(schemaIds.size());
-        for(int i = 0; i < schemaIds.size(); i++) {
-            if(schemaIds.get(i) != 0) {
-                // versions number from one, arrays from 0, so remember to offset...
-                versions.add(i+1);
-            }
-        }
+        List<Integer> versions = storageManager.listSubjectVersions(subject);
 
         if(versions.isEmpty()) {
             throw new NotFoundException(); // effectively deleted if no versions remain.
@@ -201,26 +442,19 @@ public class SchemaRegistryResource {
         return versions;
     }
 
-    private VersionResolution resolveVersion(String version, SubjectEntity subjectEntity) {
-        int schemaId = 0;
-        int resolvedVersion = 0;
+    private VersionResolution resolveVersion(String version, String subject) {
+        SubjectVersionEntity subjectVersionEntity;
         if("latest".equalsIgnoreCase(version)) {
-            for(int i = subjectEntity.getSchemaIds().size()-1; i >= 0; i--) {
-                if(subjectEntity.getSchemaIds().get(i) != 0) {
-                    resolvedVersion = i+1;
-                    schemaId = subjectEntity.getSchemaIds().get(i);
-                    break;
-                }
-            }
+            subjectVersionEntity = storageManager.findLatestSubjectVersion(subject);
         } else {
-            resolvedVersion = Integer.parseInt(version);
-            if(subjectEntity.getSchemaIds().size() >= resolvedVersion) {
-                // versions number from one, arrays from 0, so remember to offset...
-                schemaId = subjectEntity.getSchemaIds().get(resolvedVersion-1);
-            }
+            subjectVersionEntity = storageManager.findSubjectVersion(subject, Integer.parseInt(version));
+        }
+
+        if(subjectVersionEntity == null || subjectVersionEntity.isDeleted()) {
+            return new VersionResolution(0, 0);
         }
 
-        return new VersionResolution(schemaId, resolvedVersion);
+        return new VersionResolution(subjectVersionEntity.getSchemaId(), subjectVersionEntity.getVersion());
     }
 
     public static class VersionResolution {
@@ -234,24 +468,44 @@ public class SchemaRegistryResource {
     }
 
     // 'latest' is a valid version, otherwise number 1-N
-    @ApiOperation(value = "Retrieve a specific version of the schema for a given subject")
-    @ApiResponses(
+    @ApiOperation(value = "Retrieve a specific version of the schema for a given subject", response = VerboseSchema.class,
+            notes = "Cacheable, with an ETag for conditional requests. 'latest' should be revalidated on each use.")
+    @ApiResponses({
+            @ApiResponse(code = 304, message = "Not Modified"),
             @ApiResponse(code = 404, message = "Not Found")
-    )
+    })
     @GET
     @Path("/subjects/{subject}/versions/{version}")
     @RolesAllowed("catalog_user")
-    public VerboseSchema getSchemaInScope(@PathParam("subject") String subject,
-                                          @PathParam("version") String version) {
+    @ReadOnly
+    public Response getSchemaInScope(@PathParam("subject") String subject,
+                                     @PathParam("version") String version,
+                                     @Context Request request) {
         logger.debugv("getSchemaInScope {0} {1}", subject, version);
 
-        SubjectEntity subjectEntity = storageManager.findSubject(subject);
+        // resolved from memory, so a deleted version is a 404 even for a client holding a matching ETag.
+        VerboseSchema verboseSchema = findSchemaInScope(subject, version);
 
-        if(subjectEntity == null) {
-            throw new CustomNotFoundException();
+        MediaType mediaType = MediaTypes.select(request);
+        EntityTag entityTag = HttpCachePolicy.versionTag(verboseSchema.schemaEntity.getHash(), verboseSchema.version, mediaType);
+        boolean isLatest = "latest".equalsIgnoreCase(version);
+        Response notModified = HttpCachePolicy.notModified(request, entityTag, httpCachePolicy.forVersion(isLatest));
+        if(notModified != null) {
+            return notModified;
         }
 
-        VersionResolution versionResolution = resolveVersion(version, subjectEntity);
+        return HttpCachePolicy.ok(verboseSchema, mediaType, entityTag, httpCachePolicy.forVersion(isLatest));
+    }
+
+    public VerboseSchema findSchemaInScope(String subject, String version) {
+
+        // no need to look up the subject first, as an unknown subject has no versions to resolve.
+        // For 'latest' that leaves the request able to complete from cache, without touching storage.
+        VersionResolution versionResolution = resolveVersion(version, subject);
+
+        if(versionResolution.schemaId == 0) {
+            throw new CustomNotFoundException();
+        }
 
         SchemaEntity schemaEntity = storageManager.findSchema(versionResolution.schemaId);
 
@@ -266,53 +520,64 @@ public class SchemaRegistryResource {
         verboseSchema.version = versionResolution.version;
         verboseSchema.schemaEntity = schemaEntity;
         return verboseSchema;
-
     }
 
-    @ApiOperation(value = "Delete a specific schema version from the subject")
-    @ApiResponses(
-            @ApiResponse(code = 404, message = "Not Found")
-    )
+    @ApiOperation(value = "Delete a specific schema version from the subject", response = Integer.class)
+    @ApiResponses({
+            @ApiResponse(code = 404, message = "Not Found"),
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    })
     @DELETE
     @Path("/subjects/{subject}/versions/{version}")
     @RolesAllowed("catalog_user")
-    public int deleteSchemaInScope(@PathParam("subject") String subject,
-                                   @PathParam("version") String version) {
+    public void deleteSchemaInScope(@PathParam("subject") String subject,
+                                    @PathParam("version") String version,
+                                    @Suspended AsyncResponse asyncResponse) {
         logger.debugv("deleteSchemaInScope {0} {1}", subject, version);
 
+        storageExecutor.submit(asyncResponse, false, () -> deleteVersion(subject, version));
+    }
+
+    // runs on the StorageExecutor.
+    private int deleteVersion(String subject, String version) {
         SubjectEntity subjectEntity = storageManager.findSubject(subject);
 
         if(subjectEntity == null) {
             throw new CustomNotFoundException();
         }
 
-        VersionResolution versionResolution = resolveVersion(version, subjectEntity);
+        VersionResolution versionResolution = resolveVersion(version, subject);
         if(versionResolution.schemaId == 0) {
             throw new CustomNotFoundException();
         } else {
-            int index = versionResolution.version-1;
-            storageManager.deleteSchemaAtIndex(subjectEntity, index);
+            storageManager.deleteSubjectVersion(subject, versionResolution.version);
             return versionResolution.version;
         }
     }
 
-    @ApiOperation(value = "Delete a subject")
-    @ApiResponses(
-            @ApiResponse(code = 404, message = "Not Found")
-    )
+    @ApiOperation(value = "Delete a subject", response = Integer.class, responseContainer = "List")
+    @ApiResponses({
+            @ApiResponse(code = 404, message = "Not Found"),
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    })
     @DELETE
     @Path("/subjects/{subject}")
     @RolesAllowed("catalog_user")
-    public List<Integer> deleteSubject(@PathParam("subject") String subject) {
+    public void deleteSubject(@PathParam("subject") String subject, @Suspended AsyncResponse asyncResponse) {
         logger.debugv("deleteSubject {0}", subject);
 
+        storageExecutor.submit(asyncResponse, false, () -> deleteAllVersions(subject));
+    }
+
+    // runs on the StorageExecutor.
+    private List<Integer> deleteAllVersions(String subject) {
         SubjectEntity subjectEntity = storageManager.findSubject(subject);
 
         if(subjectEntity == null) {
             throw new CustomNotFoundException();
         }
 
-        List<Integer> versions = storageManager.deleteAllSchemasFromSubject(subjectEntity);
+        List<Integer> versions = storageManager.deleteAllSchemasFromSubject(subject);
 
         return versions;
     }
@@ -325,20 +590,53 @@ public class SchemaRegistryResource {
         }
     }
 
-    @ApiOperation(value = "Register a new schema, adding it to the given topic")
+    @ApiOperation(value = "Register a new schema, adding it to the given topic", response = RegisterResponse.class)
+    @ApiResponses(
+            @ApiResponse(code = 503, message = "Service Unavailable")
+    )
     @POST
     @Path("/subjects/{subject}/versions")
     @RolesAllowed("catalog_user")
-    public RegisterResponse addSchema(@PathParam("subject") String subject, TerseSchema request) {
+    public void addSchema(@PathParam("subject") String subject, TerseSchema request, @Suspended AsyncResponse asyncResponse) {
         logger.debugv("addSchema {0} {1}", subject, request);
 
-        boolean isCompatible = schemaCompatibilityResource.determineCompatibility(subject, request.schema);
+        compatibilityExecutor.submit(asyncResponse, () -> checkRegistration(subject, request),
+                storageExecutor, checkBasis -> register(subject, request, checkBasis));
+    }
 
-        if(!isCompatible) {
+    // runs on the CompatibilityExecutor, without the subject lock, so a registration waiting on storage
+    // holds up neither the checks of others nor the standalone compatibility checks.
+    private SchemaCompatibilityResource.CheckBasis checkRegistration(String subject, TerseSchema request) {
+        // parsed here rather than on the StorageExecutor, which then gets the result from the canonical cache.
+        try {
+            storageManager.canonicalize(request.schema, resolveSchemaType(request));
+        } catch (IllegalArgumentException e) {
+            throw new ClientErrorException("Invalid schema", 422);
+        }
+        SchemaCompatibilityResource.CheckBasis checkBasis = schemaCompatibilityResource.getCheckBasis(subject);
+        if(!schemaCompatibilityResource.determineCompatibility(checkBasis, request.schema)) {
             throw new BadRequestException("incompatible schema");
         }
+        return checkBasis;
+    }
+
+    // runs on the StorageExecutor.
+    private RegisterResponse register(String subject, TerseSchema request, SchemaCompatibilityResource.CheckBasis checkBasis) {
+        // hold the subject lock across the write, and a recheck if a concurrent change to the subject means the check
+        // was made against versions or a level that no longer apply, so no version slips in that it wasn't checked against.
+        int id;
+        Lock lock = storageManager.getSubjectLock(subject);
+        lock.lock();
+        try {
+            SchemaCompatibilityResource.CheckBasis currentCheckBasis = schemaCompatibilityResource.getCheckBasis(subject);
+            if(!currentCheckBasis.isSameAs(checkBasis) && !schemaCompatibilityResource.determineCompatibility(currentCheckBasis, request.schema)) {
+                throw new BadRequestException("incompatible schema");
+            }
 
-        int id = storageManager.register(subject, request.schema);
+            id = storageManager.register(subject, request.schema, resolveSchemaType(request));
+        } finally {
+            lock.unlock();
+        }
 
         RegisterResponse registerResponse = new RegisterResponse(id);
 
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.google.common.cache.CacheStats;
+import io.swagger.annotations.*;
+import org.jboss.logging.Logger;
+import org.jboss.perspicuus.storage.CompatibilityChecker;
+import org.jboss.perspicuus.storage.ParsedSchemaCache;
+import org.jboss.perspicuus.storage.StorageManager;
+import org.jboss.perspicuus.storage.StorageProvider;
+
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * REST API for runtime statistics e.g. cache effectiveness.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@SwaggerDefinition(
+        securityDefinition = @SecurityDefinition(basicAuthDefinitions = {@BasicAuthDefinition(key="basicAuth")})
+)
+@Api(value = "registry", authorizations = { @Authorization(value = "basicAuth") })
+@Path("/")
+@Produces({"application/vnd.schemaregistry.v1+json",
+        "application/vnd.schemaregistry+json; qs=0.9",
+        "application/json; qs=0.5",
+        "application/vnd.schemaregistry.v1+cbor; qs=0.4",
+        "application/cbor; qs=0.3"})
+public class StatisticsResource {
+
+    private static final Logger logger = Logger.getLogger(StatisticsResource.class);
+
+    @Inject
+    StorageManager storageManager;
+
+    @Inject
+    ParsedSchemaCache parsedSchemaCache;
+
+    @Inject
+    CompatibilityChecker compatibilityChecker;
+
+    @Inject
+    EncodedSchemaCache encodedSchemaCache;
+
+    @Inject
+    CompatibilityExecutor compatibilityExecutor;
+
+    @Inject
+    StorageExecutor storageExecutor;
+
+    public static class CacheStatistics {
+        public final long size;
+        public final long hitCount;
+        public final long missCount;
+        public final long evictionCount;
+        public final double hitRate;
+
+        public CacheStatistics(long size, CacheStats cacheStats) {
+            this.size = size;
+            this.hitCount = cacheStats.hitCount();
+            this.missCount = cacheStats.missCount();
+            this.evictionCount = cacheStats.evictionCount();
+            this.hitRate = cacheStats.hitRate();
+        }
+    }
+
+    public static class SnapshotStatistics {
+        public final int schemas;
+        public final int subjects;
+        public final int versions;
+
+        public SnapshotStatistics(int schemas, int subjects, int versions) {
+            this.schemas = schemas;
+            this.subjects = subjects;
+            this.versions = versions;
+        }
+    }
+
+    public static class ChangeLogStatistics {
+        public final long stalenessMillis;
+        public final long lastAppliedLagMillis;
+        public final long appliedCount;
+        public final long position;
+
+        public ChangeLogStatistics(long stalenessMillis, long lastAppliedLagMillis, long appliedCount, long position) {
+            this.stalenessMillis = stalenessMillis;
+            this.lastAppliedLagMillis = lastAppliedLagMillis;
+            this.appliedCount = appliedCount;
+            this.position = position;
+        }
+    }
+
+    @ApiOperation(value = "Get runtime statistics for the server's caches, in-memory registry snapshot and executors")
+    @GET
+    @Path("/statistics")
+    @RolesAllowed("catalog_user")
+    @ReadOnly
+    public Map<String,Object> getStatistics() {
+        logger.debugv("getStatistics");
+
+        Map<String,Object> statistics = new LinkedHashMap<>();
+        statistics.put("snapshot", new SnapshotStatistics(storageManager.getSnapshotSchemaCount(),
+                storageManager.getSnapshotSubjectCount(), storageManager.getSnapshotVersionCount()));
+        if(storageManager.hasChangeLog()) {
+            statistics.put("changeLog", new ChangeLogStatistics(storageManager.getChangeLogStalenessMillis(),
+                    storageManager.getChangeLogLastAppliedLagMillis(), storageManager.getChangeLogAppliedCount(),
+                    storageManager.getChangeLogPosition()));
+        }
+        statistics.put("canonicalCache", new CacheStatistics(storageManager.getCanonicalCacheSize(), storageManager.getCanonicalCacheStats()));
+        statistics.put("parsedSchemaCache", new CacheStatistics(parsedSchemaCache.getSize(), parsedSchemaCache.getStats()));
+        statistics.put("compatibilityCache", new CacheStatistics(compatibilityChecker.getSize(), compatibilityChecker.getStats()));
+        statistics.put("encodedSchemaCache", new CacheStatistics(encodedSchemaCache.getSize(), encodedSchemaCache.getStats()));
+        // e.g. a rising rejectedCount means writes are being turned away with 503, so more threads or cores are needed.
+        statistics.put("compatibilityExecutor", compatibilityExecutor.getStatistics());
+        if(storageExecutor.isStarted()) {
+            statistics.put("storageExecutor", storageExecutor.getStatistics());
+        }
+        Map<String, StorageProvider.CacheStatistics> storageCacheStatistics = storageManager.getStorageCacheStatistics();
+        if(!storageCacheStatistics.isEmpty()) {
+            // e.g. hibernate's second level cache regions
+            statistics.put("storageCaches", storageCacheStatistics);
+        }
+
+        return statistics;
+    }
+}
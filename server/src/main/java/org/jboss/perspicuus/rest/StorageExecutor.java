@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Runs the modifications that block on the database off the request threads and the CompatibilityExecutor.
+ *
+ * Reads are served from memory, so are quick whatever state the database is in. Were a slow database to
+ * tie up all the request threads in modifications, they'd nonetheless queue behind them, as would compatibility
+ * checks behind registrations were those written on the CompatibilityExecutor. Instead modifications wait
+ * on a pool of their own, sized for blocking rather than for the cores.
+ * When disabled, they're run on the thread that would otherwise hand them over.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class StorageExecutor extends BoundedExecutor {
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.executor.enabled")
+    Boolean enabled;
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.executor.threads")
+    Integer threads;
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.executor.queue-depth")
+    Integer queueDepth;
+
+    @PostConstruct
+    public void init() {
+        if(enabled == null || enabled) {
+            start("storage",
+                    threads == null || threads < 1 ? 20 : threads,
+                    queueDepth == null || queueDepth < 1 ? 1000 : queueDepth);
+        }
+    }
+}
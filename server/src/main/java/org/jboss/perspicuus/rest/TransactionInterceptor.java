@@ -16,15 +16,20 @@ import org.jboss.logging.Logger;
 import org.jboss.perspicuus.storage.StorageManager;
 
 import javax.inject.Inject;
-import javax.ws.rs.container.ContainerRequestContext;
-import javax.ws.rs.container.ContainerRequestFilter;
-import javax.ws.rs.container.ContainerResponseContext;
-import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.ext.Provider;
 import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * JAX-RS Filter for handling JPA session and transaction context in a one-per-request fashion.
+ * Methods annotated as @ReadOnly get a context without transaction demarcation.
+ * Asynchronous methods, those with a @Suspended parameter, get none, as their work is done on another thread,
+ * which must establish its own, as the BoundedExecutors do.
  *
  * @since 2017-02
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
@@ -34,44 +39,63 @@ public class TransactionInterceptor implements ContainerRequestFilter, Container
 
     private static final Logger logger = Logger.getLogger(TransactionInterceptor.class);
 
-    private static final ThreadLocal<Integer> reentrantCounter = new ThreadLocal<>();
+    // set on requests whose storage context this filter established, so is responsible for cleaning up.
+    // Nested requests share the outer one's CDI request context, and so its storage context, which they leave be.
+    private static final String STORAGE_CONTEXT_PROPERTY = TransactionInterceptor.class.getName()+".storageContext";
+
+    private static final Map<Method, Boolean> asyncMethods = new ConcurrentHashMap<>();
 
     @Inject
     StorageManager storageManager;
 
+    @Context
+    ResourceInfo resourceInfo;
+
     @Override
     public void filter(ContainerRequestContext containerRequestContext) throws IOException {
         logger.debugv("inbound");
 
-        Integer count = reentrantCounter.get();
-        if(count != null) {
-            reentrantCounter.set(count+1);
+        Method resourceMethod = resourceInfo.getResourceMethod();
+        if(resourceMethod != null && asyncMethods.computeIfAbsent(resourceMethod, TransactionInterceptor::isAsync)) {
+            // the work is done, and the response resumed, on another thread, which establishes its own context.
+            logger.debugv("inbound - async, no contextInit");
+            return;
+        }
+
+        if(storageManager.hasContext()) {
             return;
         }
-        reentrantCounter.set(1);
 
-        logger.debugv("inbound - threadInit");
-        storageManager.threadInit();
+        boolean readOnly = resourceMethod != null && resourceMethod.isAnnotationPresent(ReadOnly.class);
+
+        logger.debugv("inbound - contextInit readOnly={0}", readOnly);
+        storageManager.contextInit(readOnly);
+        containerRequestContext.setProperty(STORAGE_CONTEXT_PROPERTY, readOnly);
     }
 
     @Override
     public void filter(ContainerRequestContext containerRequestContext, ContainerResponseContext containerResponseContext) throws IOException {
         logger.debugv("outbound");
 
-        Integer count = reentrantCounter.get();
-
-        if(count == null) {
-            // occurs where the inbound interceptor chain was not called, because the path didn't match any defined jax-rs url pattern.
+        if(containerRequestContext.getProperty(STORAGE_CONTEXT_PROPERTY) == null) {
+            // occurs where the inbound interceptor chain was not called, because the path didn't match any defined jax-rs url pattern,
+            // or where the resource method is asynchronous or nested in a request which has the context already.
             return;
         }
+        containerRequestContext.removeProperty(STORAGE_CONTEXT_PROPERTY);
 
-        if(count > 1) {
-            reentrantCounter.set(count-1);
-            return;
-        }
-        reentrantCounter.remove();
+        logger.debugv("outbound - contextCleanup");
+        storageManager.contextCleanup();
+    }
 
-        logger.debugv("outbound - threadCleanup");
-        storageManager.threadCleanup();
+    static boolean isAsync(Method method) {
+        for(Annotation[] parameterAnnotations : method.getParameterAnnotations()) {
+            for(Annotation annotation : parameterAnnotations) {
+                if(annotation.annotationType() == Suspended.class) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 }
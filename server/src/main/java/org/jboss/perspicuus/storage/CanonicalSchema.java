@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.jboss.perspicuus.parsers.SchemaParser;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+
+/**
+ * Immutable result of parsing a raw schema: its type, normalized content and fingerprint.
+ * Computing this is the expensive part of handling an inbound schema, so instances are cached.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class CanonicalSchema {
+
+    private final String content;
+    private final SchemaType schemaType;
+    private final String hash;
+    private final Long rabinFingerprint;
+
+    private CanonicalSchema(String content, SchemaType schemaType, String hash, Long rabinFingerprint) {
+        this.content = content;
+        this.schemaType = schemaType;
+        this.hash = hash;
+        this.rabinFingerprint = rabinFingerprint;
+    }
+
+    /**
+     * Parse the given raw schema to its canonical form.
+     *
+     * @param rawSchema
+     * @param schemaType the schema's type, or null to guess it from the content.
+     * @return
+     * @throws IllegalArgumentException if the schema is not valid for the given type, or if none is given, for any known type.
+     */
+    public static CanonicalSchema parse(String rawSchema, SchemaType schemaType) {
+
+        // the only reliable way to identify the type of schema we've been given is to
+        // try each parser in turn until one accepts it as valid. However, we can usually
+        // guess the type, so try the most likely parser first. If we've been told it, that's the only one.
+
+        for(SchemaType candidateType : SchemaType.candidatesFor(rawSchema, schemaType)) {
+            SchemaParser<?> schemaParser = candidateType.getSchemaParser();
+            Optional<String> canonicalSchema = schemaParser.parseToCanonicalForm(rawSchema);
+            if(canonicalSchema.isPresent()) {
+                String content = canonicalSchema.get();
+                return new CanonicalSchema(content, candidateType, hash(content), schemaParser.fingerprint64(content));
+            }
+        }
+
+        if(schemaType != null) {
+            throw new IllegalArgumentException("can't parse provided schema as "+schemaType);
+        }
+        throw new IllegalArgumentException("can't parse provided schema as any known type");
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Compute the fingerprint of the given (canonical) schema content, as a 64 character hex string.
+     *
+     * @param content
+     * @return
+     */
+    public static String hash(String content) {
+        try {
+            // https://avro.apache.org/docs/current/spec.html#Schema+Fingerprints
+            // recommends MD5 or SHA-256, both of which are present as standard in java
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(content.getBytes(StandardCharsets.UTF_8));
+            byte[] digestBytes = messageDigest.digest();
+
+            char[] hex = new char[digestBytes.length*2];
+            for(int i = 0; i < digestBytes.length; i++) {
+                hex[i*2] = HEX_DIGITS[(digestBytes[i] >> 4) & 0x0f];
+                hex[i*2+1] = HEX_DIGITS[digestBytes[i] & 0x0f];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public SchemaType getSchemaType() {
+        return schemaType;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public Long getRabinFingerprint() {
+        return rabinFingerprint;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import javax.persistence.*;
+
+/**
+ * Storage layer record of a modification to a Subject, written in the same transaction as the modification itself.
+ * Server instances sharing the database read these to learn which parts of their in-memory state are out of date.
+ *
+ * Only the subject is recorded, as readers reload its entire state rather than replaying the change.
+ * Rows are of no use once every instance has read them, so are deleted after a retention period.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@Entity
+@Table(indexes = {
+        @Index(name = "ChangeLogEntity_createdMillis", columnList = "createdMillis")
+})
+@NamedQueries({
+        @NamedQuery(name = "ChangeLogEntity.afterId", query = "SELECT e FROM ChangeLogEntity e WHERE e.id > :lastId ORDER BY e.id"),
+        @NamedQuery(name = "ChangeLogEntity.maxIdBefore", query = "SELECT MAX(e.id) FROM ChangeLogEntity e WHERE e.createdMillis < :millis"),
+        @NamedQuery(name = "ChangeLogEntity.deleteBefore", query = "DELETE FROM ChangeLogEntity e WHERE e.createdMillis < :millis")
+})
+public class ChangeLogEntity {
+
+    // increases with each insert, though concurrent transactions may commit out of order.
+    private long id;
+
+    private String subject;
+
+    // the server instance that made the change.
+    private String origin;
+
+    // wall clock time at the origin, so comparable between instances only to the extent their clocks agree.
+    private long createdMillis;
+
+    public ChangeLogEntity() {}
+
+    public ChangeLogEntity(String subject, String origin, long createdMillis) {
+        this.subject = subject;
+        this.origin = origin;
+        this.createdMillis = createdMillis;
+    }
+
+    // IDENTITY, unlike SchemaEntity's hilo sequence, though it rules out JDBC batching of these inserts.
+    // The tailer needs ids allocated in insert order across all instances, so that gaps are brief and an id below
+    // its position is never committed later. A pooled allocator would give each instance a block of its own,
+    // leaving lasting gaps and ids that arrive behind the position. Sequence fetches would cost a round trip each anyway.
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    public void setCreatedMillis(long createdMillis) {
+        this.createdMillis = createdMillis;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.jboss.logging.Logger;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Follows the change log of a shared StorageProvider, passing the subjects changed by other server instances
+ * to a consumer that brings the local view of them up to date.
+ *
+ * Change ids are allocated in insert order, but transactions may commit in a different order, so a change may
+ * become visible after others with higher ids have been read. Ids skipped over are therefore watched for until
+ * gapTimeoutMillis has passed, after which the transaction allocating them is presumed to have rolled back.
+ * Reloading a subject is idempotent, so reading a change more than once does no harm.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+class ChangeLogTailer {
+
+    private static final Logger logger = Logger.getLogger(ChangeLogTailer.class);
+
+    static final int PAGE_SIZE = 1000;
+
+    private final StorageProvider storageProvider;
+    private final Consumer<Set<String>> subjectRefresher;
+    private final long gapTimeoutMillis;
+
+    // every change with an id up to and including this has been applied, or given up on.
+    private long position;
+    // changes beyond the position that have been applied, because of a gap before them.
+    private final TreeSet<Long> appliedBeyondPosition = new TreeSet<>();
+    // when the gap at position+1 was first seen, or -1 if there is no gap.
+    private long gapSinceMillis = -1;
+
+    private volatile long caughtUpMillis;
+    private volatile long lastAppliedLagMillis;
+    private volatile long appliedCount;
+
+    ChangeLogTailer(StorageProvider storageProvider, Consumer<Set<String>> subjectRefresher, long gapTimeoutMillis) {
+        this.storageProvider = storageProvider;
+        this.subjectRefresher = subjectRefresher;
+        this.gapTimeoutMillis = gapTimeoutMillis;
+    }
+
+    /**
+     * Set the starting point, prior to loading the entire state from storage.
+     * Changes created shortly before now are read again, in case they were not yet committed when the state was loaded.
+     *
+     * @param nowMillis
+     */
+    synchronized void start(long nowMillis) {
+        position = storageProvider.findLastChangeIdBefore(nowMillis-gapTimeoutMillis);
+        appliedBeyondPosition.clear();
+        gapSinceMillis = -1;
+        caughtUpMillis = nowMillis;
+    }
+
+    /**
+     * Read and apply any new changes.
+     *
+     * @param nowMillis
+     * @return the number of changes read, including ones from this server instance, which need not be applied.
+     */
+    synchronized int poll(long nowMillis) {
+        String localOrigin = storageProvider.getChangeLogOrigin();
+        int readCount = 0;
+        List<ChangeLogEntity> page;
+        do {
+            page = storageProvider.findChangesAfter(position, PAGE_SIZE);
+            Set<String> subjects = new LinkedHashSet<>();
+            long oldestCreatedMillis = Long.MAX_VALUE;
+            for(ChangeLogEntity change : page) {
+                if(appliedBeyondPosition.contains(change.getId())) {
+                    continue;
+                }
+                readCount++;
+                if(!change.getOrigin().equals(localOrigin)) {
+                    subjects.add(change.getSubject());
+                    oldestCreatedMillis = Math.min(oldestCreatedMillis, change.getCreatedMillis());
+                }
+            }
+
+            if(!subjects.isEmpty()) {
+                subjectRefresher.accept(subjects);
+                appliedCount += subjects.size();
+                lastAppliedLagMillis = Math.max(0, nowMillis-oldestCreatedMillis);
+            }
+
+            for(ChangeLogEntity change : page) {
+                if(change.getId() > position) {
+                    appliedBeyondPosition.add(change.getId());
+                }
+            }
+            advance(nowMillis);
+        } while(page.size() == PAGE_SIZE && appliedBeyondPosition.size() < page.size());
+
+        caughtUpMillis = nowMillis;
+        return readCount;
+    }
+
+    private void advance(long nowMillis) {
+        while(!appliedBeyondPosition.isEmpty()) {
+            long lowest = appliedBeyondPosition.first();
+            if(lowest == position+1) {
+                appliedBeyondPosition.pollFirst();
+                position = lowest;
+                gapSinceMillis = -1;
+            } else if(gapSinceMillis < 0) {
+                gapSinceMillis = nowMillis;
+                return;
+            } else if(nowMillis-gapSinceMillis >= gapTimeoutMillis) {
+                logger.debugv("giving up on change ids {0} to {1}", position+1, lowest-1);
+                position = lowest-1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param retentionMillis
+     * @param nowMillis
+     * @return the number of changes deleted.
+     */
+    int prune(long retentionMillis, long nowMillis) {
+        return storageProvider.deleteChangesBefore(nowMillis-retentionMillis);
+    }
+
+    synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * @param nowMillis
+     * @return an upper bound on the age of any change committed by another instance but not yet applied here,
+     * excluding changes that commit out of id order, which may additionally be delayed by up to a poll interval.
+     */
+    long getStalenessMillis(long nowMillis) {
+        return Math.max(0, nowMillis-caughtUpMillis);
+    }
+
+    /**
+     * @return the time between creation and application of the oldest change in the most recently applied batch,
+     * as measured by the clocks of the respective instances.
+     */
+    long getLastAppliedLagMillis() {
+        return lastAppliedLagMillis;
+    }
+
+    /**
+     * @return the number of subject refreshes made due to changes by other instances.
+     */
+    long getAppliedCount() {
+        return appliedCount;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jboss.perspicuus.parsers.SchemaParser;
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Schema compatibility testing, with memoization of results.
+ *
+ * Compatibility at a given level is decided pairwise, between the proposed schema and either the latest
+ * or (for the _TRANSITIVE levels) each of the existing versions. As schemas are immutable, the verdict for
+ * a given pair and level never changes, so is cached for reuse by subsequent requests.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class CompatibilityChecker {
+
+    @Inject
+    StorageManager storageManager;
+
+    @Inject
+    ParsedSchemaCache parsedSchemaCache;
+
+    @Inject
+    @ConfigurationValue("perspicuus.cache.compatibility.size")
+    Integer verdictCacheSize;
+
+    // (existing schema id, proposed schema fingerprint, level, type) -> is compatible
+    private Cache<VerdictKey, Boolean> verdictCache;
+
+    @PostConstruct
+    public void init() {
+        verdictCache = CacheBuilder.newBuilder()
+                .maximumSize(verdictCacheSize == null ? 10000 : verdictCacheSize)
+                .recordStats()
+                .build();
+    }
+
+    public CacheStats getStats() {
+        return verdictCache.stats();
+    }
+
+    public long getSize() {
+        return verdictCache.size();
+    }
+
+    private static class VerdictKey {
+        private final int existingSchemaId;
+        private final String proposedSchemaHash;
+        private final String compatibilityLevel;
+        private final SchemaType schemaType;
+
+        VerdictKey(int existingSchemaId, String proposedSchemaHash, String compatibilityLevel, SchemaType schemaType) {
+            this.existingSchemaId = existingSchemaId;
+            this.proposedSchemaHash = proposedSchemaHash;
+            this.compatibilityLevel = compatibilityLevel;
+            this.schemaType = schemaType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            VerdictKey that = (VerdictKey) o;
+            return existingSchemaId == that.existingSchemaId &&
+                    proposedSchemaHash.equals(that.proposedSchemaHash) &&
+                    compatibilityLevel.equals(that.compatibilityLevel) &&
+                    schemaType == that.schemaType;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(existingSchemaId, proposedSchemaHash, compatibilityLevel, schemaType);
+        }
+    }
+
+    /**
+     * Determine the compatibility of a proposed schema with the given stored ones.
+     *
+     * @param compatibilityLevel
+     * @param existingSchemaEntities in chronological order, i.e. most recent last. Must not be empty. May include unsaved entities.
+     * @param proposedSchema
+     * @return
+     */
+    public boolean isCompatible(String compatibilityLevel, List<SchemaEntity> existingSchemaEntities, String proposedSchema) {
+        SchemaEntity latestSchemaEntity = existingSchemaEntities.get(existingSchemaEntities.size()-1);
+        SchemaParser<?> schemaParser = latestSchemaEntity.getSchemaType().getSchemaParser();
+        if(!schemaParser.checksCompatibility(compatibilityLevel)) {
+            // before any parsing, as the proposed schema may be of another type altogether.
+            return true;
+        }
+        return isCompatible(schemaParser, compatibilityLevel, existingSchemaEntities, proposedSchema);
+    }
+
+    private <T> boolean isCompatible(SchemaParser<T> schemaParser, String compatibilityLevel,
+                                     List<SchemaEntity> existingSchemaEntities, String proposedSchema) {
+
+        SchemaEntity latestSchemaEntity = existingSchemaEntities.get(existingSchemaEntities.size()-1);
+        SchemaType schemaType = latestSchemaEntity.getSchemaType();
+
+        List<SchemaEntity> schemaEntitiesToCheck = compatibilityLevel.endsWith("_TRANSITIVE") ?
+                existingSchemaEntities : Collections.singletonList(latestSchemaEntity);
+
+        CanonicalSchema canonicalSchema;
+        try {
+            canonicalSchema = storageManager.canonicalize(proposedSchema, schemaType);
+        } catch (IllegalArgumentException e) {
+            // not a schema of the latest version's type, so can't be compatible with it.
+            return false;
+        }
+        String proposedSchemaHash = canonicalSchema.getHash();
+        T parsedProposedSchema = null; // lazily, as we won't need it if all the verdicts are cached.
+
+        // most recent first, as that's the most likely to be incompatible.
+        for(int i = schemaEntitiesToCheck.size()-1; i >= 0; i--) {
+            SchemaEntity schemaEntity = schemaEntitiesToCheck.get(i);
+
+            if(schemaEntity.getSchemaType() != schemaType) {
+                // a version from before the subject changed type, whilst its level was e.g. NONE.
+                return false;
+            }
+
+            // an entity that's not yet stored, e.g. an earlier item of a batch registration, has no id to cache by.
+            boolean isStored = schemaEntity.getId() != null;
+
+            VerdictKey verdictKey = isStored ? new VerdictKey(schemaEntity.getId(), proposedSchemaHash, compatibilityLevel, schemaType) : null;
+            Boolean verdict = isStored ? verdictCache.getIfPresent(verdictKey) : null;
+            if(verdict == null) {
+                if(parsedProposedSchema == null) {
+                    try {
+                        parsedProposedSchema = schemaParser.parse(proposedSchema);
+                    } catch (RuntimeException e) {
+                        return false;
+                    }
+                }
+                T existingSchema = isStored ? parsedSchemaCache.getParsedSchema(schemaParser, schemaEntity) : schemaParser.parse(schemaEntity.getContent());
+                verdict = schemaParser.isCompatible(compatibilityLevel, Collections.singletonList(existingSchema), parsedProposedSchema);
+                if(isStored) {
+                    verdictCache.put(verdictKey, verdict);
+                }
+            }
+
+            if(!verdict) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright 2017-2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import com.google.common.util.concurrent.Striped;
+import org.hibernate.Session;
+import org.hibernate.cache.spi.CacheImplementor;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.persistence.*;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * Storage provider using a JDBC database via JPA. Several server instances may share the database,
+ * in which case row locks on the subject serialise changes to its versions between them,
+ * and each change is recorded in a ChangeLogEntity so the other instances can learn of it.
+ *
+ * @since 2017-02
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class JpaStorageProvider implements StorageProvider {
+
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    @PersistenceUnit(unitName = "perspicuus")
+    private EntityManagerFactory entityManagerFactory;
+
+    // identifies this instance in the change log. Random, as instances have no stable identity across restarts.
+    private final String origin = UUID.randomUUID().toString();
+
+    @Inject
+    StorageContext storageContext;
+
+    // serialises creation of a schema within this process, keyed by hash, as schema are shared between subjects.
+    // Always taken after, never before, a subject lock.
+    private final Striped<Lock> schemaLocks = Striped.lazyWeakLock(256);
+
+    // the underlying EntityManager is created lazily, so requests that don't modify anything never open one.
+    private EntityManager getEntityManager() {
+        EntityManager entityManager = storageContext.getEntityManager();
+        if(entityManager == null) {
+            boolean readOnly = storageContext.isReadOnly();
+            entityManager = entityManagerFactory.createEntityManager();
+            if(readOnly) {
+                // no dirty checking snapshots needed for entities we won't modify.
+                entityManager.unwrap(Session.class).setDefaultReadOnly(true);
+            } else {
+                entityManager.getTransaction().begin();
+            }
+            storageContext.setEntityManager(entityManager);
+        }
+        return entityManager;
+    }
+
+    private void commit(EntityManager entityManager) {
+        if(storageContext.isReadOnly()) {
+            throw new IllegalStateException("storage modification attempted in read-only context");
+        }
+        entityManager.getTransaction().commit();
+        entityManager.getTransaction().begin();
+    }
+
+    // uses the second level cache where possible, so schemas just created or previously loaded
+    // by this instance needn't be read from the database again. The rest are read in one query.
+    @Override
+    public List<SchemaEntity> findSchemas(Collection<Integer> ids) {
+        EntityManager entityManager = getEntityManager();
+        Cache cache = entityManagerFactory.getCache();
+        List<SchemaEntity> results = new ArrayList<>(ids.size());
+        List<Integer> uncachedIds = new ArrayList<>();
+        for(Integer id : ids) {
+            SchemaEntity schemaEntity = cache.contains(SchemaEntity.class, id) ? entityManager.find(SchemaEntity.class, id) : null;
+            if(schemaEntity != null) {
+                results.add(schemaEntity);
+            } else {
+                uncachedIds.add(id);
+            }
+        }
+        if(!uncachedIds.isEmpty()) {
+            TypedQuery<SchemaEntity> query = entityManager.createNamedQuery("SchemaEntity.byIds", SchemaEntity.class);
+            query.setParameter("ids", uncachedIds);
+            results.addAll(query.getResultList());
+        }
+        return results;
+    }
+
+    private List<Integer> listSubjectVersions(String subject) {
+        EntityManager entityManager = getEntityManager();
+        TypedQuery<Integer> query = entityManager.createNamedQuery("SubjectVersionEntity.liveVersions", Integer.class);
+        query.setParameter("subject", subject);
+        return query.getResultList();
+    }
+
+    private SubjectVersionEntity findSubjectVersion(String subject, int version) {
+        EntityManager entityManager = getEntityManager();
+        return entityManager.find(SubjectVersionEntity.class, new SubjectVersionEntity.Key(subject, version));
+    }
+
+    private int findLatestVersionNumber(String subject) {
+        EntityManager entityManager = getEntityManager();
+        TypedQuery<SubjectVersionEntity> query = entityManager.createNamedQuery("SubjectVersionEntity.liveByVersionDesc", SubjectVersionEntity.class);
+        query.setParameter("subject", subject);
+        query.setMaxResults(1);
+        List<SubjectVersionEntity> results = query.getResultList();
+        return results.isEmpty() ? 0 : results.get(0).getVersion();
+    }
+
+    @Override
+    public List<SubjectEntity> findSubjects(Collection<String> names) {
+        EntityManager entityManager = getEntityManager();
+        TypedQuery<SubjectEntity> query = entityManager.createNamedQuery("SubjectEntity.byNames", SubjectEntity.class);
+        query.setParameter("names", names);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<SubjectVersionEntity> findAllSubjectVersions(Collection<String> subjects) {
+        EntityManager entityManager = getEntityManager();
+        TypedQuery<SubjectVersionEntity> query = entityManager.createNamedQuery("SubjectVersionEntity.allForSubjects", SubjectVersionEntity.class);
+        query.setParameter("subjects", subjects);
+        return query.getResultList();
+    }
+
+    // scans page through the table in key order, clearing the EntityManager between pages to bound its memory use.
+
+    @Override
+    public void scanSchemas(Consumer<SchemaEntity> consumer) {
+        EntityManager entityManager = createReadOnlyEntityManager();
+        try {
+            int lastId = 0;
+            List<SchemaEntity> page;
+            do {
+                page = entityManager.createNamedQuery("SchemaEntity.afterId", SchemaEntity.class)
+                        .setParameter("lastId", lastId)
+                        .setMaxResults(SCAN_PAGE_SIZE)
+                        .getResultList();
+                for(SchemaEntity schemaEntity : page) {
+                    lastId = schemaEntity.getId();
+                    consumer.accept(schemaEntity);
+                }
+                entityManager.clear();
+            } while(page.size() == SCAN_PAGE_SIZE);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Override
+    public void scanSubjects(Consumer<SubjectEntity> consumer) {
+        EntityManager entityManager = createReadOnlyEntityManager();
+        try {
+            String lastName = "";
+            List<SubjectEntity> page;
+            do {
+                page = entityManager.createNamedQuery("SubjectEntity.afterName", SubjectEntity.class)
+                        .setParameter("lastName", lastName)
+                        .setMaxResults(SCAN_PAGE_SIZE)
+                        .getResultList();
+                for(SubjectEntity subjectEntity : page) {
+                    lastName = subjectEntity.getName();
+                    consumer.accept(subjectEntity);
+                }
+                entityManager.clear();
+            } while(page.size() == SCAN_PAGE_SIZE);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Override
+    public void scanSubjectVersions(Consumer<SubjectVersionEntity> consumer) {
+        EntityManager entityManager = createReadOnlyEntityManager();
+        try {
+            String lastSubject = "";
+            int lastVersion = 0;
+            List<SubjectVersionEntity> page;
+            do {
+                page = entityManager.createNamedQuery("SubjectVersionEntity.afterKey", SubjectVersionEntity.class)
+                        .setParameter("lastSubject", lastSubject)
+                        .setParameter("lastVersion", lastVersion)
+                        .setMaxResults(SCAN_PAGE_SIZE)
+                        .getResultList();
+                for(SubjectVersionEntity subjectVersionEntity : page) {
+                    lastSubject = subjectVersionEntity.getSubject();
+                    lastVersion = subjectVersionEntity.getVersion();
+                    consumer.accept(subjectVersionEntity);
+                }
+                entityManager.clear();
+            } while(page.size() == SCAN_PAGE_SIZE);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    // for bulk reads, which would only churn the second level cache, so bypass it.
+    private EntityManager createReadOnlyEntityManager() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.unwrap(Session.class).setDefaultReadOnly(true);
+        entityManager.setProperty("javax.persistence.cache.storeMode", CacheStoreMode.BYPASS);
+        return entityManager;
+    }
+
+    @Override
+    public Map<String, StorageProvider.CacheStatistics> getCacheStatistics() {
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        Statistics statistics = sessionFactory.getStatistics();
+        CacheImplementor cache = sessionFactory.getCache();
+        Map<String, StorageProvider.CacheStatistics> results = new TreeMap<>();
+        // not Statistics.getSecondLevelCacheRegionNames(), as those carry the container's deployment specific
+        // prefix, whereas lookups by name expect it stripped.
+        for(String regionName : cache.getCacheRegionNames()) {
+            if(cache.getRegion(regionName) instanceof QueryResultsRegion) {
+                continue;
+            }
+            CacheRegionStatistics regionStatistics = statistics.getDomainDataRegionStatistics(regionName);
+            // not all cache implementations can count their contents.
+            long size = Math.max(-1, regionStatistics.getElementCountInMemory());
+            results.put(regionName, new StorageProvider.CacheStatistics(size,
+                    regionStatistics.getHitCount(), regionStatistics.getMissCount(), regionStatistics.getPutCount()));
+        }
+        return results;
+    }
+
+    @Override
+    public boolean hasChangeLog() {
+        return true;
+    }
+
+    @Override
+    public String getChangeLogOrigin() {
+        return origin;
+    }
+
+    @Override
+    public List<ChangeLogEntity> findChangesAfter(long lastId, int maxResults) {
+        EntityManager entityManager = createReadOnlyEntityManager();
+        try {
+            return entityManager.createNamedQuery("ChangeLogEntity.afterId", ChangeLogEntity.class)
+                    .setParameter("lastId", lastId)
+                    .setMaxResults(maxResults)
+                    .getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Override
+    public long findLastChangeIdBefore(long millis) {
+        EntityManager entityManager = createReadOnlyEntityManager();
+        try {
+            Long result = entityManager.createNamedQuery("ChangeLogEntity.maxIdBefore", Long.class)
+                    .setParameter("millis", millis)
+                    .getSingleResult();
+            return result == null ? 0 : result;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Override
+    public int deleteChangesBefore(long millis) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            int count = entityManager.createNamedQuery("ChangeLogEntity.deleteBefore")
+                    .setParameter("millis", millis)
+                    .executeUpdate();
+            entityManager.getTransaction().commit();
+            return count;
+        } finally {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    // record the change in the transaction making it, so other instances see both or neither.
+    private void logChange(String subject) {
+        getEntityManager().persist(new ChangeLogEntity(subject, origin, System.currentTimeMillis()));
+    }
+
+    private SubjectEntity ensureSubject(String subject) {
+        EntityManager entityManager = getEntityManager();
+        SubjectEntity subjectEntity = entityManager.find(SubjectEntity.class, subject);
+        if (subjectEntity == null) {
+            subjectEntity = new SubjectEntity();
+            subjectEntity.setName(subject);
+            entityManager.persist(subjectEntity);
+        }
+        return subjectEntity;
+    }
+
+    @Override
+    public void setCompatibility(String subject, String compatibility) {
+
+        EntityManager entityManager = getEntityManager();
+
+        SubjectEntity subjectEntity = ensureSubject(subject);
+
+        if(!compatibility.equals(subjectEntity.getCompatibility())) {
+            subjectEntity.setCompatibility(compatibility);
+            logChange(subject);
+            commit(entityManager);
+        }
+    }
+
+    // the subject's row lock serialises version changes between server instances sharing the database.
+    private SubjectEntity lockSubject(String subject) {
+        EntityManager entityManager = getEntityManager();
+
+        SubjectEntity subjectEntity = entityManager.find(SubjectEntity.class, subject, LockModeType.PESSIMISTIC_WRITE);
+        if(subjectEntity != null) {
+            return subjectEntity;
+        }
+
+        // there is no row to lock yet, so create one, tolerating another server instance beating us to it.
+        subjectEntity = new SubjectEntity();
+        subjectEntity.setName(subject);
+        try {
+            entityManager.persist(subjectEntity);
+            commit(entityManager);
+        } catch (PersistenceException e) {
+            restartAfterFailure(entityManager);
+        }
+
+        return entityManager.find(SubjectEntity.class, subject, LockModeType.PESSIMISTIC_WRITE);
+    }
+
+    // as lockSubject, but for many at once.
+    private Map<String, SubjectEntity> lockSubjects(Collection<String> subjects) {
+        EntityManager entityManager = getEntityManager();
+
+        Map<String, SubjectEntity> subjectEntities = findAndLockSubjects(subjects);
+        if(subjectEntities.size() == subjects.size()) {
+            return subjectEntities;
+        }
+
+        try {
+            for(String subject : subjects) {
+                if(!subjectEntities.containsKey(subject)) {
+                    SubjectEntity subjectEntity = new SubjectEntity();
+                    subjectEntity.setName(subject);
+                    entityManager.persist(subjectEntity);
+                }
+            }
+            commit(entityManager);
+        } catch (PersistenceException e) {
+            // another server instance created one of them concurrently, so go the slow way, one at a time.
+            restartAfterFailure(entityManager);
+            for(String subject : subjects) {
+                lockSubject(subject);
+            }
+        }
+
+        return findAndLockSubjects(subjects);
+    }
+
+    private Map<String, SubjectEntity> findAndLockSubjects(Collection<String> subjects) {
+        EntityManager entityManager = getEntityManager();
+        TypedQuery<SubjectEntity> query = entityManager.createNamedQuery("SubjectEntity.byNames", SubjectEntity.class);
+        query.setParameter("names", subjects);
+        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        Map<String, SubjectEntity> subjectEntities = new HashMap<>();
+        for(SubjectEntity subjectEntity : query.getResultList()) {
+            subjectEntities.put(subjectEntity.getName(), subjectEntity);
+        }
+        return subjectEntities;
+    }
+
+    private void restartAfterFailure(EntityManager entityManager) {
+        EntityTransaction transaction = entityManager.getTransaction();
+        if(transaction.isActive()) {
+            transaction.rollback();
+        }
+        entityManager.clear();
+        transaction.begin();
+    }
+
+    /**
+     * Register a batch of schemas, using one transaction for both the new schemas and the new versions,
+     * so a registration that fails part way leaves no unreferenced schema rows behind.
+     *
+     * @param registrations
+     * @return the schema ids, in the same order as the registrations.
+     */
+    @Override
+    public List<Integer> register(List<StorageManager.Registration> registrations) {
+
+        Set<String> subjects = new LinkedHashSet<>();
+        // sorted, so concurrent batches insert shared schemas in the same order and can't deadlock on them.
+        SortedMap<String, CanonicalSchema> canonicalSchemasByHash = new TreeMap<>();
+        for(StorageManager.Registration registration : registrations) {
+            subjects.add(registration.subject);
+            canonicalSchemasByHash.put(registration.canonicalSchema.getHash(), registration.canonicalSchema);
+        }
+
+        // taken before the transaction is begun, as that holds a pooled connection, which the holder may need to commit.
+        List<Lock> locks = new ArrayList<>();
+        for(Lock lock : schemaLocks.bulkGet(canonicalSchemasByHash.keySet())) {
+            lock.lock();
+            locks.add(lock);
+        }
+        try {
+            EntityManager entityManager = getEntityManager();
+            Map<String, SubjectEntity> subjectEntities;
+            Map<String, SchemaEntity> schemaEntitiesByHash;
+            do {
+                // start afresh, so we see anything committed by the previous holders of the subject locks
+                commit(entityManager);
+                subjectEntities = lockSubjects(subjects);
+                schemaEntitiesByHash = findOrCreateSchemas(canonicalSchemasByHash);
+            } while(schemaEntitiesByHash == null);
+
+            // read everything we need before writing anything else, as each query may otherwise trigger a flush.
+            Map<String, Set<Integer>> liveSchemaIdsBySubject = new HashMap<>();
+            Map<String, Integer> maxVersionsBySubject = new HashMap<>();
+            for(String subject : subjects) {
+                liveSchemaIdsBySubject.put(subject, new HashSet<>());
+                maxVersionsBySubject.put(subject, 0);
+            }
+            TypedQuery<Object[]> liveQuery = entityManager.createNamedQuery("SubjectVersionEntity.liveSchemaIdsForSubjects", Object[].class);
+            liveQuery.setParameter("subjects", subjects);
+            for(Object[] row : liveQuery.getResultList()) {
+                liveSchemaIdsBySubject.get((String)row[0]).add((Integer)row[1]);
+            }
+            TypedQuery<Object[]> maxQuery = entityManager.createNamedQuery("SubjectVersionEntity.maxVersionForSubjects", Object[].class);
+            maxQuery.setParameter("subjects", subjects);
+            for(Object[] row : maxQuery.getResultList()) {
+                maxVersionsBySubject.put((String)row[0], (Integer)row[1]);
+            }
+
+            Set<String> changedSubjects = new LinkedHashSet<>();
+            List<Integer> schemaIds = new ArrayList<>(registrations.size());
+            for(StorageManager.Registration registration : registrations) {
+                String subject = registration.subject;
+                int schemaId = schemaEntitiesByHash.get(registration.canonicalSchema.getHash()).getId();
+                schemaIds.add(schemaId);
+
+                if(liveSchemaIdsBySubject.get(subject).add(schemaId)) {
+                    int version = maxVersionsBySubject.get(subject)+1;
+                    maxVersionsBySubject.put(subject, version);
+                    entityManager.persist(new SubjectVersionEntity(subject, version, schemaId));
+                    subjectEntities.get(subject).setLatestVersion(version);
+                    changedSubjects.add(subject);
+                }
+            }
+            for(String subject : changedSubjects) {
+                logChange(subject);
+            }
+
+            // whether we wrote anything or not, this releases the row locks.
+            // If it fails, the storage context's cleanup rolls back the new schemas along with everything else.
+            commit(entityManager);
+
+            return schemaIds;
+        } finally {
+            for(int i = locks.size()-1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    // new schemas are flushed but not committed. The unique hash constraint picks the winner of any race
+    // with a concurrent registration of the same schema by another server instance, in which case
+    // the transaction, and with it the subject row locks, is rolled back and null returned so the caller can retry.
+    private Map<String, SchemaEntity> findOrCreateSchemas(SortedMap<String, CanonicalSchema> canonicalSchemasByHash) {
+        EntityManager entityManager = getEntityManager();
+
+        Map<String, SchemaEntity> schemaEntitiesByHash = findSchemasByHash(canonicalSchemasByHash.keySet());
+        int existingCount = schemaEntitiesByHash.size();
+
+        try {
+            for(CanonicalSchema canonicalSchema : canonicalSchemasByHash.values()) {
+                if(!schemaEntitiesByHash.containsKey(canonicalSchema.getHash())) {
+                    SchemaEntity schemaEntity = new SchemaEntity(canonicalSchema);
+                    entityManager.persist(schemaEntity);
+                    schemaEntitiesByHash.put(canonicalSchema.getHash(), schemaEntity);
+                }
+            }
+            entityManager.flush();
+        } catch (PersistenceException e) {
+            restartAfterFailure(entityManager);
+            // no one beat us to any of them, so it's not a race and a retry won't help.
+            if(findSchemasByHash(canonicalSchemasByHash.keySet()).size() == existingCount) {
+                throw e;
+            }
+            return null;
+        }
+
+        return schemaEntitiesByHash;
+    }
+
+    private Map<String, SchemaEntity> findSchemasByHash(Collection<String> hashes) {
+        EntityManager entityManager = getEntityManager();
+        TypedQuery<SchemaEntity> query = entityManager.createNamedQuery("SchemaEntity.byHashes", SchemaEntity.class);
+        query.setParameter("hashes", hashes);
+        Map<String, SchemaEntity> schemaEntitiesByHash = new HashMap<>();
+        for(SchemaEntity schemaEntity : query.getResultList()) {
+            schemaEntitiesByHash.put(schemaEntity.getHash(), schemaEntity);
+        }
+        return schemaEntitiesByHash;
+    }
+
+    @Override
+    public void deleteSubjectVersion(String subject, int version) {
+        EntityManager entityManager = getEntityManager();
+        commit(entityManager);
+
+        SubjectEntity subjectEntity = lockSubject(subject);
+        SubjectVersionEntity subjectVersionEntity = findSubjectVersion(subject, version);
+        if(subjectVersionEntity != null && !subjectVersionEntity.isDeleted()) {
+            subjectVersionEntity.setDeleted(true);
+            if(subjectEntity.getLatestVersion() == version) {
+                subjectEntity.setLatestVersion(findLatestVersionNumber(subject));
+            }
+            logChange(subject);
+        }
+        commit(entityManager);
+    }
+
+    @Override
+    public List<Integer> deleteAllSchemasFromSubject(String subject) {
+        EntityManager entityManager = getEntityManager();
+        commit(entityManager);
+
+        SubjectEntity subjectEntity = lockSubject(subject);
+
+        List<Integer> versions = listSubjectVersions(subject);
+
+        Query query = entityManager.createNamedQuery("SubjectVersionEntity.deleteAll");
+        query.setParameter("subject", subject);
+        query.executeUpdate();
+
+        subjectEntity.setLatestVersion(0);
+
+        if(!versions.isEmpty()) {
+            logChange(subject);
+        }
+
+        commit(entityManager);
+        // the bulk update bypassed any versions already loaded, so don't let them be read again.
+        entityManager.clear();
+
+        return versions;
+    }
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.jboss.logging.Logger;
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Storage provider using an embedded, file based, append-only log of registry mutations.
+ * Needs no database, but can't be shared between server instances.
+ *
+ * Each mutation is appended to the log as a length prefixed, checksummed frame, and forced to disk
+ * before it's applied to the in-memory state from which reads are served. A frame holds all the records
+ * of one mutation, e.g. the schemas and versions of a batch registration, so they're replayed all or nothing.
+ * On startup the log is memory-mapped and replayed to rebuild that state. A torn frame at the tail,
+ * from a crash mid-write, is discarded. Damage anywhere else fails startup, rather than lose the frames after it.
+ *
+ * The log is never compacted, and being mapped as a single buffer, is limited to 2GB.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class LogStorageProvider implements StorageProvider {
+
+    private static final Logger logger = Logger.getLogger(LogStorageProvider.class);
+
+    static final String LOG_FILE_NAME = "perspicuus.log";
+
+    private static final byte SCHEMA_ADDED = 1;
+    private static final byte VERSION_APPENDED = 2;
+    private static final byte VERSION_DELETED = 3;
+    private static final byte SUBJECT_DELETED = 4;
+    private static final byte COMPATIBILITY_SET = 5;
+
+    // framing: payload length, then payload, then CRC32 of payload. The payload is one or more records,
+    // each prefixed by its own length.
+    private static final int HEADER_SIZE = 4;
+    private static final int TRAILER_SIZE = 4;
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.log.directory")
+    String directory;
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.log.sync")
+    Boolean sync;
+
+    private FileChannel channel;
+
+    @Inject
+    StorageContext storageContext;
+
+    // serialises writers, which are the only mutators of the state below, so they may read it without the stateLock.
+    private final Object writeMutex = new Object();
+
+    // guards the state against readers seeing it part way through applying a record. Held only for in-memory
+    // work, never for I/O, so reads aren't held up waiting on a write to reach the disk.
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    private final Map<Integer, SchemaEntity> schemasById = new HashMap<>();
+    private final Map<String, SchemaEntity> schemasByHash = new HashMap<>();
+    private final Map<String, SubjectState> subjects = new HashMap<>();
+    private int maxSchemaId = 0;
+
+    private static class SubjectState {
+        // entities are replaced rather than modified, as they're shared with readers.
+        SubjectEntity subjectEntity;
+        // element i is version i+1, since versions are never reused.
+        final List<SubjectVersionEntity> versions = new ArrayList<>();
+    }
+
+    @PostConstruct
+    public void init() {
+        Path path = Paths.get(directory == null ? "perspicuus-data" : directory);
+        try {
+            Files.createDirectories(path);
+            channel = FileChannel.open(path.resolve(LOG_FILE_NAME),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            long validLength = replay(path.resolve(LOG_FILE_NAME));
+            if(validLength < size) {
+                logger.warnv("discarding {0} bytes of incomplete frame at end of {1}", size-validLength, path.resolve(LOG_FILE_NAME));
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            logger.infov("replayed {0} schemas and {1} subjects from {2}", schemasById.size(), subjects.size(), path.resolve(LOG_FILE_NAME));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warnv(e, "failed to close storage log");
+        }
+    }
+
+    // returns the length of the valid frames, beyond which is at most a torn one.
+    private long replay(Path file) throws IOException {
+        long size = channel.size();
+        if(size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("storage log "+file+" is "+size+" bytes, beyond the 2GB that can be mapped");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32 crc32 = new CRC32();
+        while(buffer.hasRemaining()) {
+            int start = buffer.position();
+            if(buffer.remaining() < HEADER_SIZE) {
+                return start;
+            }
+            int length = buffer.getInt();
+            if(length <= 0) {
+                // space the filesystem allocated for a write that never landed reads as zeros.
+                if(isZeroFilled(buffer, start)) {
+                    return start;
+                }
+                throw new IllegalStateException("storage log "+file+" is corrupt at offset "+start);
+            }
+            if(buffer.remaining() < length+TRAILER_SIZE) {
+                return start;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc32.reset();
+            crc32.update(payload);
+            if((int)crc32.getValue() != buffer.getInt()) {
+                if(!buffer.hasRemaining()) {
+                    return start;
+                }
+                throw new IllegalStateException("storage log "+file+" is corrupt at offset "+start);
+            }
+            applyFrame(payload);
+        }
+        return buffer.position();
+    }
+
+    private static boolean isZeroFilled(ByteBuffer buffer, int from) {
+        for(int i = from; i < buffer.limit(); i++) {
+            if(buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void applyFrame(byte[] payload) {
+        ByteBuffer frame = ByteBuffer.wrap(payload);
+        while(frame.hasRemaining()) {
+            byte[] record = new byte[frame.getInt()];
+            frame.get(record);
+            apply(record);
+        }
+    }
+
+    private void checkWritable() {
+        if(storageContext.isReadOnly()) {
+            throw new IllegalStateException("storage modification attempted in read-only context");
+        }
+    }
+
+    @Override
+    public List<SchemaEntity> findSchemas(Collection<Integer> ids) {
+        stateLock.readLock().lock();
+        try {
+            List<SchemaEntity> results = new ArrayList<>(ids.size());
+            for(Integer id : ids) {
+                SchemaEntity schemaEntity = schemasById.get(id);
+                if(schemaEntity != null) {
+                    results.add(schemaEntity);
+                }
+            }
+            return results;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SubjectEntity> findSubjects(Collection<String> names) {
+        stateLock.readLock().lock();
+        try {
+            List<SubjectEntity> results = new ArrayList<>(names.size());
+            for(String name : names) {
+                SubjectState subjectState = subjects.get(name);
+                if(subjectState != null) {
+                    results.add(subjectState.subjectEntity);
+                }
+            }
+            return results;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SubjectVersionEntity> findAllSubjectVersions(Collection<String> subjectNames) {
+        stateLock.readLock().lock();
+        try {
+            List<SubjectVersionEntity> results = new ArrayList<>();
+            for(String name : new TreeSet<>(subjectNames)) {
+                SubjectState subjectState = subjects.get(name);
+                if(subjectState != null) {
+                    results.addAll(subjectState.versions);
+                }
+            }
+            return results;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void scanSchemas(Consumer<SchemaEntity> consumer) {
+        stateLock.readLock().lock();
+        try {
+            schemasById.values().forEach(consumer);
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void scanSubjects(Consumer<SubjectEntity> consumer) {
+        stateLock.readLock().lock();
+        try {
+            for(SubjectState subjectState : subjects.values()) {
+                consumer.accept(subjectState.subjectEntity);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void scanSubjectVersions(Consumer<SubjectVersionEntity> consumer) {
+        stateLock.readLock().lock();
+        try {
+            for(SubjectState subjectState : subjects.values()) {
+                subjectState.versions.forEach(consumer);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    // the following are for use by writers only, so don't need the stateLock.
+
+    private SubjectVersionEntity findSubjectVersion(String subject, int version) {
+        SubjectState subjectState = subjects.get(subject);
+        if(subjectState == null || version < 1 || version > subjectState.versions.size()) {
+            return null;
+        }
+        return subjectState.versions.get(version-1);
+    }
+
+    private List<Integer> listSubjectVersions(String subject) {
+        List<Integer> results = new ArrayList<>();
+        SubjectState subjectState = subjects.get(subject);
+        if(subjectState != null) {
+            for(SubjectVersionEntity subjectVersionEntity : subjectState.versions) {
+                if(!subjectVersionEntity.isDeleted()) {
+                    results.add(subjectVersionEntity.getVersion());
+                }
+            }
+        }
+        return results;
+    }
+
+    private int getMaxVersion(String subject) {
+        SubjectState subjectState = subjects.get(subject);
+        return subjectState == null ? 0 : subjectState.versions.size();
+    }
+
+    @Override
+    public void setCompatibility(String subject, String compatibility) {
+        checkWritable();
+        synchronized (writeMutex) {
+            SubjectState subjectState = subjects.get(subject);
+            if(subjectState != null && compatibility.equals(subjectState.subjectEntity.getCompatibility())) {
+                return;
+            }
+            RecordWriter recordWriter = new RecordWriter();
+            recordWriter.begin(COMPATIBILITY_SET).writeString(subject).writeString(compatibility).end();
+            append(recordWriter);
+        }
+    }
+
+    @Override
+    public List<Integer> register(List<StorageManager.Registration> registrations) {
+        checkWritable();
+        synchronized (writeMutex) {
+            RecordWriter recordWriter = new RecordWriter();
+
+            // what the state will be once the records are applied, for registrations later in the batch.
+            Map<String, Integer> newSchemaIdsByHash = new HashMap<>();
+            Map<String, Set<Integer>> liveSchemaIdsBySubject = new HashMap<>();
+            Map<String, Integer> maxVersionsBySubject = new HashMap<>();
+            int nextSchemaId = maxSchemaId+1;
+
+            List<Integer> schemaIds = new ArrayList<>(registrations.size());
+            for(StorageManager.Registration registration : registrations) {
+                CanonicalSchema canonicalSchema = registration.canonicalSchema;
+                SchemaEntity existing = schemasByHash.get(canonicalSchema.getHash());
+                Integer schemaId = existing != null ? existing.getId() : newSchemaIdsByHash.get(canonicalSchema.getHash());
+                if(schemaId == null) {
+                    schemaId = nextSchemaId++;
+                    newSchemaIdsByHash.put(canonicalSchema.getHash(), schemaId);
+                    recordWriter.begin(SCHEMA_ADDED)
+                            .writeInt(schemaId)
+                            .writeString(canonicalSchema.getSchemaType().name())
+                            .writeString(canonicalSchema.getHash())
+                            .writeNullableLong(canonicalSchema.getRabinFingerprint())
+                            .writeString(canonicalSchema.getContent())
+                            .end();
+                }
+                schemaIds.add(schemaId);
+
+                String subject = registration.subject;
+                Set<Integer> liveSchemaIds = liveSchemaIdsBySubject.computeIfAbsent(subject, this::liveSchemaIds);
+                if(liveSchemaIds.add(schemaId)) {
+                    int version = maxVersionsBySubject.getOrDefault(subject, getMaxVersion(subject))+1;
+                    maxVersionsBySubject.put(subject, version);
+                    recordWriter.begin(VERSION_APPENDED).writeString(subject).writeInt(version).writeInt(schemaId).end();
+                }
+            }
+
+            append(recordWriter);
+            return schemaIds;
+        }
+    }
+
+    private Set<Integer> liveSchemaIds(String subject) {
+        Set<Integer> results = new HashSet<>();
+        SubjectState subjectState = subjects.get(subject);
+        if(subjectState != null) {
+            for(SubjectVersionEntity subjectVersionEntity : subjectState.versions) {
+                if(!subjectVersionEntity.isDeleted()) {
+                    results.add(subjectVersionEntity.getSchemaId());
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void deleteSubjectVersion(String subject, int version) {
+        checkWritable();
+        synchronized (writeMutex) {
+            SubjectVersionEntity subjectVersionEntity = findSubjectVersion(subject, version);
+            if(subjectVersionEntity != null && !subjectVersionEntity.isDeleted()) {
+                RecordWriter recordWriter = new RecordWriter();
+                recordWriter.begin(VERSION_DELETED).writeString(subject).writeInt(version).end();
+                append(recordWriter);
+            }
+        }
+    }
+
+    @Override
+    public List<Integer> deleteAllSchemasFromSubject(String subject) {
+        checkWritable();
+        synchronized (writeMutex) {
+            List<Integer> versions = listSubjectVersions(subject);
+            if(!versions.isEmpty()) {
+                RecordWriter recordWriter = new RecordWriter();
+                recordWriter.begin(SUBJECT_DELETED).writeString(subject).end();
+                append(recordWriter);
+            }
+            return versions;
+        }
+    }
+
+    // write the records to the log, then apply them to the in-memory state. Called with the writeMutex held.
+    private void append(RecordWriter recordWriter) {
+        if(recordWriter.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(recordWriter.toByteArray());
+        long position = -1;
+        try {
+            position = channel.position();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if(sync == null || sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // don't leave a partial frame, as the next append would land after it, where replay would refuse it as corrupt.
+            if(position >= 0) {
+                try {
+                    channel.truncate(position);
+                    channel.position(position);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new UncheckedIOException(e);
+        }
+
+        stateLock.writeLock().lock();
+        try {
+            for(byte[] payload : recordWriter.payloads) {
+                apply(payload);
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    // used for both live writes and replay, so the two can't disagree about the resulting state.
+    private void apply(byte[] payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            switch (type) {
+                case SCHEMA_ADDED: {
+                    SchemaEntity schemaEntity = new SchemaEntity();
+                    schemaEntity.setId(in.readInt());
+                    schemaEntity.setSchemaType(SchemaType.valueOf(readString(in)));
+                    schemaEntity.setHash(readString(in));
+                    schemaEntity.setRabinFingerprint(in.readBoolean() ? in.readLong() : null);
+                    schemaEntity.setContent(readString(in));
+                    schemasById.put(schemaEntity.getId(), schemaEntity);
+                    schemasByHash.put(schemaEntity.getHash(), schemaEntity);
+                    maxSchemaId = Math.max(maxSchemaId, schemaEntity.getId());
+                    break;
+                }
+                case VERSION_APPENDED: {
+                    String subject = readString(in);
+                    int version = in.readInt();
+                    int schemaId = in.readInt();
+                    SubjectState subjectState = ensureSubject(subject);
+                    SubjectVersionEntity subjectVersionEntity = new SubjectVersionEntity(subject, version, schemaId);
+                    subjectState.versions.add(subjectVersionEntity);
+                    subjectState.subjectEntity = copySubject(subjectState.subjectEntity, subjectState.subjectEntity.getCompatibility(), version);
+                    break;
+                }
+                case VERSION_DELETED: {
+                    String subject = readString(in);
+                    int version = in.readInt();
+                    SubjectState subjectState = subjects.get(subject);
+                    markDeleted(subjectState, version);
+                    subjectState.subjectEntity = copySubject(subjectState.subjectEntity,
+                            subjectState.subjectEntity.getCompatibility(), latestLiveVersion(subjectState));
+                    break;
+                }
+                case SUBJECT_DELETED: {
+                    String subject = readString(in);
+                    SubjectState subjectState = subjects.get(subject);
+                    for(int version = 1; version <= subjectState.versions.size(); version++) {
+                        markDeleted(subjectState, version);
+                    }
+                    subjectState.subjectEntity = copySubject(subjectState.subjectEntity, subjectState.subjectEntity.getCompatibility(), 0);
+                    break;
+                }
+                case COMPATIBILITY_SET: {
+                    String subject = readString(in);
+                    String compatibility = readString(in);
+                    SubjectState subjectState = ensureSubject(subject);
+                    subjectState.subjectEntity = copySubject(subjectState.subjectEntity, compatibility, subjectState.subjectEntity.getLatestVersion());
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("unknown storage log record type "+type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SubjectState ensureSubject(String subject) {
+        SubjectState subjectState = subjects.get(subject);
+        if(subjectState == null) {
+            subjectState = new SubjectState();
+            subjectState.subjectEntity = new SubjectEntity();
+            subjectState.subjectEntity.setName(subject);
+            subjects.put(subject, subjectState);
+        }
+        return subjectState;
+    }
+
+    private SubjectEntity copySubject(SubjectEntity original, String compatibility, int latestVersion) {
+        SubjectEntity subjectEntity = new SubjectEntity();
+        subjectEntity.setName(original.getName());
+        subjectEntity.setCompatibility(compatibility);
+        subjectEntity.setLatestVersion(latestVersion);
+        return subjectEntity;
+    }
+
+    private void markDeleted(SubjectState subjectState, int version) {
+        SubjectVersionEntity original = subjectState.versions.get(version-1);
+        if(original.isDeleted()) {
+            return;
+        }
+        SubjectVersionEntity deleted = new SubjectVersionEntity(original.getSubject(), version, original.getSchemaId());
+        deleted.setDeleted(true);
+        subjectState.versions.set(version-1, deleted);
+    }
+
+    private int latestLiveVersion(SubjectState subjectState) {
+        for(int i = subjectState.versions.size()-1; i >= 0; i--) {
+            if(!subjectState.versions.get(i).isDeleted()) {
+                return i+1;
+            }
+        }
+        return 0;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Accumulates the records for a single append, which frames them together, keeping the payloads for applying once written.
+     * Strings are written as length prefixed UTF-8, as DataOutput.writeUTF can't hold a large schema.
+     */
+    private static class RecordWriter {
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        private final List<byte[]> payloads = new ArrayList<>();
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(payload);
+
+        RecordWriter begin(byte type) {
+            payload.reset();
+            return writeByte(type);
+        }
+
+        RecordWriter writeByte(byte value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        RecordWriter writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        RecordWriter writeNullableLong(Long value) {
+            try {
+                out.writeBoolean(value != null);
+                if(value != null) {
+                    out.writeLong(value);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        RecordWriter writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            try {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        void end() {
+            byte[] bytes = payload.toByteArray();
+            ByteBuffer record = ByteBuffer.allocate(4+bytes.length);
+            record.putInt(bytes.length).put(bytes);
+            records.write(record.array(), 0, record.capacity());
+            payloads.add(bytes);
+        }
+
+        boolean isEmpty() {
+            return payloads.isEmpty();
+        }
+
+        // the whole append as one frame, so it's replayed all or nothing.
+        byte[] toByteArray() {
+            byte[] bytes = records.toByteArray();
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE+bytes.length+TRAILER_SIZE);
+            frame.putInt(bytes.length).put(bytes).putInt((int)crc32.getValue());
+            return frame.array();
+        }
+    }
+}
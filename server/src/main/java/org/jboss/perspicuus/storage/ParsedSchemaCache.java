@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.jboss.perspicuus.parsers.SchemaParser;
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Holds stored schema in their parsed, type specific object model form (e.g. an avro Schema or a ProtobufFile),
+ * so that compatibility checks against existing versions don't need to re-parse them on every request.
+ *
+ * @see CompatibilityChecker
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class ParsedSchemaCache {
+
+    @Inject
+    @ConfigurationValue("perspicuus.cache.parsed.size")
+    Integer parsedCacheSize;
+
+    // schema id -> parsed schema. As with the content, the parsed form of a stored schema never changes.
+    private Cache<Integer, Object> parsedCache;
+
+    @PostConstruct
+    public void init() {
+        parsedCache = CacheBuilder.newBuilder()
+                .maximumSize(parsedCacheSize == null ? 1000 : parsedCacheSize)
+                .recordStats()
+                .build();
+    }
+
+    public CacheStats getStats() {
+        return parsedCache.stats();
+    }
+
+    public long getSize() {
+        return parsedCache.size();
+    }
+
+    /**
+     * Return the parsed form of the given stored schema, which must be of a type matching the provided parser.
+     *
+     * @param schemaParser
+     * @param schemaEntity
+     * @param <T>
+     * @return
+     * @throws IllegalArgumentException if the parser isn't that of the schema's type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getParsedSchema(SchemaParser<T> schemaParser, SchemaEntity schemaEntity) {
+        // entries are keyed by id alone, which is sound only as each schema is of one type, so has one parser.
+        if(schemaEntity.getSchemaType().getSchemaParser() != schemaParser) {
+            throw new IllegalArgumentException("schema "+schemaEntity.getId()+" is of type "+schemaEntity.getSchemaType());
+        }
+        T parsedSchema = (T)parsedCache.getIfPresent(schemaEntity.getId());
+        if(parsedSchema == null) {
+            parsedSchema = schemaParser.parse(schemaEntity.getContent());
+            parsedCache.put(schemaEntity.getId(), parsedSchema);
+        }
+        return parsedSchema;
+    }
+
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import java.util.*;
+
+/**
+ * Immutable in-memory view of the entire registry: schemas, subjects and their versions.
+ * Serves all reads, so they never need to touch storage or take locks.
+ *
+ * A change produces a new snapshot sharing all unchanged state with its predecessor. Each map is
+ * split into a fixed number of shards, and only the shards holding changed entries are copied,
+ * so the cost of a change is proportional to the shard size rather than the size of the registry.
+ *
+ * Entities held here are shared between threads, so must not be modified.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+final class RegistrySnapshot {
+
+    static final RegistrySnapshot EMPTY = new RegistrySnapshot(new ShardedMap<>(), new ShardedMap<>(),
+            new ShardedMap<>(), new ShardedMap<>(), new String[0], new ShardedMap<>(), 0);
+
+    private final ShardedMap<Integer, SchemaEntity> schemasById;
+    private final ShardedMap<String, SchemaEntity> schemasByHash;
+    // earliest schema with each fingerprint
+    private final ShardedMap<Long, SchemaEntity> schemasByRabinFingerprint;
+    private final ShardedMap<String, SubjectSnapshot> subjects;
+    // the keys of subjects, in order, for listing them by page or prefix. Subjects are never removed, only added.
+    private final String[] sortedSubjectNames;
+    // schema id -> non-deleted versions using it
+    private final ShardedMap<Integer, List<SubjectVersionEntity>> usesBySchemaId;
+    private final int versionCount;
+
+    private RegistrySnapshot(ShardedMap<Integer, SchemaEntity> schemasById, ShardedMap<String, SchemaEntity> schemasByHash,
+                             ShardedMap<Long, SchemaEntity> schemasByRabinFingerprint, ShardedMap<String, SubjectSnapshot> subjects,
+                             String[] sortedSubjectNames, ShardedMap<Integer, List<SubjectVersionEntity>> usesBySchemaId, int versionCount) {
+        this.schemasById = schemasById;
+        this.schemasByHash = schemasByHash;
+        this.schemasByRabinFingerprint = schemasByRabinFingerprint;
+        this.subjects = subjects;
+        this.sortedSubjectNames = sortedSubjectNames;
+        this.usesBySchemaId = usesBySchemaId;
+        this.versionCount = versionCount;
+    }
+
+    /**
+     * The state of one subject, including its deleted versions.
+     */
+    static final class SubjectSnapshot {
+        private final SubjectEntity subjectEntity;
+        // ascending version order
+        private final SubjectVersionEntity[] versions;
+        private final SubjectVersionEntity latest;
+
+        SubjectSnapshot(SubjectEntity subjectEntity, List<SubjectVersionEntity> subjectVersionEntities) {
+            // copies, so later changes to the originals, e.g. by an EntityManager, can't leak in.
+            this.subjectEntity = new SubjectEntity();
+            this.subjectEntity.setName(subjectEntity.getName());
+            this.subjectEntity.setCompatibility(subjectEntity.getCompatibility());
+            this.subjectEntity.setLatestVersion(subjectEntity.getLatestVersion());
+
+            versions = new SubjectVersionEntity[subjectVersionEntities.size()];
+            for(int i = 0; i < versions.length; i++) {
+                SubjectVersionEntity original = subjectVersionEntities.get(i);
+                versions[i] = new SubjectVersionEntity(original.getSubject(), original.getVersion(), original.getSchemaId());
+                versions[i].setDeleted(original.isDeleted());
+            }
+            Arrays.sort(versions, Comparator.comparingInt(SubjectVersionEntity::getVersion));
+            latest = findLatest(versions);
+        }
+
+        private static SubjectVersionEntity findLatest(SubjectVersionEntity[] versions) {
+            for(int i = versions.length-1; i >= 0; i--) {
+                if(!versions[i].isDeleted()) {
+                    return versions[i];
+                }
+            }
+            return null;
+        }
+
+        private SubjectVersionEntity find(int version) {
+            int low = 0;
+            int high = versions.length-1;
+            while(low <= high) {
+                int mid = (low+high) >>> 1;
+                int midVersion = versions[mid].getVersion();
+                if(midVersion < version) {
+                    low = mid+1;
+                } else if(midVersion > version) {
+                    high = mid-1;
+                } else {
+                    return versions[mid];
+                }
+            }
+            return null;
+        }
+
+        private int liveCount() {
+            int count = 0;
+            for(SubjectVersionEntity subjectVersionEntity : versions) {
+                if(!subjectVersionEntity.isDeleted()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Accumulates the entire registry state, for building the initial snapshot in one step.
+     */
+    static final class Builder {
+        private final Map<Integer, SchemaEntity> schemasById = new HashMap<>();
+        private final Map<String, SubjectEntity> subjectEntities = new HashMap<>();
+        private final Map<String, List<SubjectVersionEntity>> subjectVersionEntities = new HashMap<>();
+
+        void addSchema(SchemaEntity schemaEntity) {
+            schemasById.put(schemaEntity.getId(), schemaEntity);
+        }
+
+        void addSubject(SubjectEntity subjectEntity) {
+            subjectEntities.put(subjectEntity.getName(), subjectEntity);
+        }
+
+        void addSubjectVersion(SubjectVersionEntity subjectVersionEntity) {
+            subjectVersionEntities.computeIfAbsent(subjectVersionEntity.getSubject(), s -> new ArrayList<>()).add(subjectVersionEntity);
+        }
+
+        RegistrySnapshot build() {
+            Map<String, SchemaEntity> schemasByHash = new HashMap<>();
+            Map<Long, SchemaEntity> schemasByRabinFingerprint = new HashMap<>();
+            for(SchemaEntity schemaEntity : schemasById.values()) {
+                schemasByHash.put(schemaEntity.getHash(), schemaEntity);
+                addRabinFingerprint(schemasByRabinFingerprint, schemaEntity);
+            }
+
+            Map<String, SubjectSnapshot> subjects = new HashMap<>();
+            Map<Integer, List<SubjectVersionEntity>> usesBySchemaId = new HashMap<>();
+            int versionCount = 0;
+            for(SubjectEntity subjectEntity : subjectEntities.values()) {
+                SubjectSnapshot subjectSnapshot = new SubjectSnapshot(subjectEntity,
+                        subjectVersionEntities.getOrDefault(subjectEntity.getName(), Collections.emptyList()));
+                subjects.put(subjectEntity.getName(), subjectSnapshot);
+                for(SubjectVersionEntity subjectVersionEntity : subjectSnapshot.versions) {
+                    if(!subjectVersionEntity.isDeleted()) {
+                        usesBySchemaId.computeIfAbsent(subjectVersionEntity.getSchemaId(), id -> new ArrayList<>(1)).add(subjectVersionEntity);
+                        versionCount++;
+                    }
+                }
+            }
+
+            String[] sortedSubjectNames = subjects.keySet().toArray(new String[0]);
+            Arrays.sort(sortedSubjectNames);
+
+            return new RegistrySnapshot(ShardedMap.of(schemasById), ShardedMap.of(schemasByHash),
+                    ShardedMap.of(schemasByRabinFingerprint), ShardedMap.of(subjects), sortedSubjectNames,
+                    ShardedMap.of(usesBySchemaId), versionCount);
+        }
+    }
+
+    private static void addRabinFingerprint(Map<Long, SchemaEntity> schemasByRabinFingerprint, SchemaEntity schemaEntity) {
+        if(schemaEntity.getRabinFingerprint() == null) {
+            return;
+        }
+        SchemaEntity existing = schemasByRabinFingerprint.get(schemaEntity.getRabinFingerprint());
+        if(existing == null || existing.getId() > schemaEntity.getId()) {
+            schemasByRabinFingerprint.put(schemaEntity.getRabinFingerprint(), schemaEntity);
+        }
+    }
+
+    /**
+     * Create a new snapshot, incorporating the given changes.
+     *
+     * @param newSchemaEntities schemas not already present.
+     * @param subjectEntities the current state of each changed subject.
+     * @param subjectVersionEntities all versions, including deleted ones, of the changed subjects.
+     * @return
+     */
+    RegistrySnapshot withChanges(Collection<SchemaEntity> newSchemaEntities, Collection<SubjectEntity> subjectEntities,
+                                 Collection<SubjectVersionEntity> subjectVersionEntities) {
+
+        Map<Integer, SchemaEntity> schemaChangesById = new HashMap<>();
+        Map<String, SchemaEntity> schemaChangesByHash = new HashMap<>();
+        Map<Long, SchemaEntity> rabinFingerprintChanges = new HashMap<>();
+        for(SchemaEntity schemaEntity : newSchemaEntities) {
+            schemaChangesById.put(schemaEntity.getId(), schemaEntity);
+            schemaChangesByHash.put(schemaEntity.getHash(), schemaEntity);
+            Long rabinFingerprint = schemaEntity.getRabinFingerprint();
+            if(rabinFingerprint != null) {
+                SchemaEntity existing = rabinFingerprintChanges.containsKey(rabinFingerprint)
+                        ? rabinFingerprintChanges.get(rabinFingerprint) : schemasByRabinFingerprint.get(rabinFingerprint);
+                if(existing == null || existing.getId() > schemaEntity.getId()) {
+                    rabinFingerprintChanges.put(rabinFingerprint, schemaEntity);
+                }
+            }
+        }
+
+        Map<String, List<SubjectVersionEntity>> versionsBySubject = new HashMap<>();
+        for(SubjectVersionEntity subjectVersionEntity : subjectVersionEntities) {
+            versionsBySubject.computeIfAbsent(subjectVersionEntity.getSubject(), s -> new ArrayList<>()).add(subjectVersionEntity);
+        }
+
+        Map<String, SubjectSnapshot> subjectChanges = new HashMap<>();
+        Map<Integer, List<SubjectVersionEntity>> usesChanges = new HashMap<>();
+        List<String> newSubjectNames = new ArrayList<>();
+        int newVersionCount = versionCount;
+        for(SubjectEntity subjectEntity : subjectEntities) {
+            String subject = subjectEntity.getName();
+            SubjectSnapshot before = subjects.get(subject);
+            SubjectSnapshot after = new SubjectSnapshot(subjectEntity, versionsBySubject.getOrDefault(subject, Collections.emptyList()));
+            subjectChanges.put(subject, after);
+            if(before == null) {
+                newSubjectNames.add(subject);
+            }
+
+            if(before != null) {
+                newVersionCount -= before.liveCount();
+                for(SubjectVersionEntity subjectVersionEntity : before.versions) {
+                    if(!subjectVersionEntity.isDeleted()) {
+                        usesChanges.computeIfAbsent(subjectVersionEntity.getSchemaId(), this::copyOfUses)
+                                .removeIf(use -> use.getSubject().equals(subject));
+                    }
+                }
+            }
+            newVersionCount += after.liveCount();
+            for(SubjectVersionEntity subjectVersionEntity : after.versions) {
+                if(!subjectVersionEntity.isDeleted()) {
+                    usesChanges.computeIfAbsent(subjectVersionEntity.getSchemaId(), this::copyOfUses).add(subjectVersionEntity);
+                }
+            }
+        }
+        // empty lists become removals
+        usesChanges.replaceAll((schemaId, uses) -> uses.isEmpty() ? null : uses);
+
+        return new RegistrySnapshot(schemasById.with(schemaChangesById), schemasByHash.with(schemaChangesByHash),
+                schemasByRabinFingerprint.with(rabinFingerprintChanges), subjects.with(subjectChanges),
+                withSubjectNames(newSubjectNames), usesBySchemaId.with(usesChanges), newVersionCount);
+    }
+
+    // a single merge pass, so adding subjects costs one copy of the array regardless of how many are added.
+    private String[] withSubjectNames(List<String> newSubjectNames) {
+        if(newSubjectNames.isEmpty()) {
+            return sortedSubjectNames;
+        }
+        String[] additions = newSubjectNames.toArray(new String[0]);
+        Arrays.sort(additions);
+
+        String[] merged = new String[sortedSubjectNames.length+additions.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while(i < sortedSubjectNames.length && j < additions.length) {
+            merged[k++] = sortedSubjectNames[i].compareTo(additions[j]) < 0 ? sortedSubjectNames[i++] : additions[j++];
+        }
+        System.arraycopy(sortedSubjectNames, i, merged, k, sortedSubjectNames.length-i);
+        System.arraycopy(additions, j, merged, k+sortedSubjectNames.length-i, additions.length-j);
+        return merged;
+    }
+
+    private List<SubjectVersionEntity> copyOfUses(int schemaId) {
+        List<SubjectVersionEntity> uses = usesBySchemaId.get(schemaId);
+        return uses == null ? new ArrayList<>(1) : new ArrayList<>(uses);
+    }
+
+    boolean containsSchema(int id) {
+        return schemasById.get(id) != null;
+    }
+
+    SchemaEntity findSchema(int id) {
+        return schemasById.get(id);
+    }
+
+    SchemaEntity findByHash(String hash) {
+        return schemasByHash.get(hash);
+    }
+
+    SchemaEntity findByRabinFingerprint(long rabinFingerprint) {
+        return schemasByRabinFingerprint.get(rabinFingerprint);
+    }
+
+    SubjectEntity findSubject(String name) {
+        SubjectSnapshot subjectSnapshot = subjects.get(name);
+        return subjectSnapshot == null ? null : subjectSnapshot.subjectEntity;
+    }
+
+    List<String> listSubjectNames() {
+        return Collections.unmodifiableList(Arrays.asList(sortedSubjectNames));
+    }
+
+    /**
+     * @param prefix if not null, only names starting with this are listed.
+     * @param after if not null, only names ordered after this are listed.
+     * @return the matching names in order, as a view of the snapshot rather than a copy.
+     */
+    List<String> listSubjectNames(String prefix, String after) {
+        int from = 0;
+        if(after != null) {
+            from = lowerBound(after);
+            if(from < sortedSubjectNames.length && sortedSubjectNames[from].equals(after)) {
+                from++;
+            }
+        }
+        int to = sortedSubjectNames.length;
+        if(prefix != null && !prefix.isEmpty()) {
+            from = Math.max(from, lowerBound(prefix));
+            // names with the prefix are contiguous, so find the first one past them.
+            int low = from;
+            int high = sortedSubjectNames.length;
+            while(low < high) {
+                int mid = (low+high) >>> 1;
+                if(sortedSubjectNames[mid].startsWith(prefix)) {
+                    low = mid+1;
+                } else {
+                    high = mid;
+                }
+            }
+            to = low;
+        }
+        return listSubjectNames().subList(from, Math.max(from, to));
+    }
+
+    // the index of the first name not ordered before the given one.
+    private int lowerBound(String name) {
+        int index = Arrays.binarySearch(sortedSubjectNames, name);
+        return index >= 0 ? index : -(index+1);
+    }
+
+    List<SchemaEntity> getSchemas(String subject) {
+        List<SchemaEntity> results = new ArrayList<>();
+        SubjectSnapshot subjectSnapshot = subjects.get(subject);
+        if(subjectSnapshot != null) {
+            for(SubjectVersionEntity subjectVersionEntity : subjectSnapshot.versions) {
+                if(!subjectVersionEntity.isDeleted()) {
+                    results.add(schemasById.get(subjectVersionEntity.getSchemaId()));
+                }
+            }
+        }
+        return results;
+    }
+
+    List<Integer> listSubjectVersions(String subject) {
+        List<Integer> results = new ArrayList<>();
+        SubjectSnapshot subjectSnapshot = subjects.get(subject);
+        if(subjectSnapshot != null) {
+            for(SubjectVersionEntity subjectVersionEntity : subjectSnapshot.versions) {
+                if(!subjectVersionEntity.isDeleted()) {
+                    results.add(subjectVersionEntity.getVersion());
+                }
+            }
+        }
+        return results;
+    }
+
+    SubjectVersionEntity findSubjectVersion(String subject, int version) {
+        SubjectSnapshot subjectSnapshot = subjects.get(subject);
+        return subjectSnapshot == null ? null : subjectSnapshot.find(version);
+    }
+
+    SubjectVersionEntity findLatestSubjectVersion(String subject) {
+        SubjectSnapshot subjectSnapshot = subjects.get(subject);
+        return subjectSnapshot == null ? null : subjectSnapshot.latest;
+    }
+
+    SubjectVersionEntity findSubjectVersionBySchemaId(String subject, int schemaId) {
+        SubjectSnapshot subjectSnapshot = subjects.get(subject);
+        if(subjectSnapshot != null) {
+            for(SubjectVersionEntity subjectVersionEntity : subjectSnapshot.versions) {
+                if(subjectVersionEntity.getSchemaId() == schemaId && !subjectVersionEntity.isDeleted()) {
+                    return subjectVersionEntity;
+                }
+            }
+        }
+        return null;
+    }
+
+    List<SubjectVersionEntity> findUsesOfSchema(int schemaId) {
+        List<SubjectVersionEntity> uses = usesBySchemaId.get(schemaId);
+        if(uses == null) {
+            return new ArrayList<>();
+        }
+        List<SubjectVersionEntity> results = new ArrayList<>(uses);
+        results.sort(Comparator.comparing(SubjectVersionEntity::getSubject).thenComparingInt(SubjectVersionEntity::getVersion));
+        return results;
+    }
+
+    int getMaxVersion(String subject) {
+        SubjectSnapshot subjectSnapshot = subjects.get(subject);
+        if(subjectSnapshot == null || subjectSnapshot.versions.length == 0) {
+            return 0;
+        }
+        return subjectSnapshot.versions[subjectSnapshot.versions.length-1].getVersion();
+    }
+
+    int getSchemaCount() {
+        return schemasById.size();
+    }
+
+    int getSubjectCount() {
+        return subjects.size();
+    }
+
+    /**
+     * @return the number of non-deleted versions, over all subjects.
+     */
+    int getVersionCount() {
+        return versionCount;
+    }
+
+    /**
+     * Immutable map, split into shards so that a modified copy need only copy the shards it changes.
+     */
+    static final class ShardedMap<K,V> {
+
+        static final int SHARD_COUNT = 4096;
+
+        private final Map<K,V>[] shards;
+        private final int size;
+
+        ShardedMap() {
+            shards = newShards();
+            Arrays.fill(shards, Collections.emptyMap());
+            size = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <K,V> Map<K,V>[] newShards() {
+            return (Map<K,V>[])new Map<?,?>[SHARD_COUNT];
+        }
+
+        private ShardedMap(Map<K,V>[] shards, int size) {
+            this.shards = shards;
+            this.size = size;
+        }
+
+        static <K,V> ShardedMap<K,V> of(Map<K,V> entries) {
+            ShardedMap<K,V> empty = new ShardedMap<>();
+            return empty.with(entries);
+        }
+
+        private static int shardIndex(Object key) {
+            int hash = key.hashCode();
+            return (hash ^ (hash >>> 16)) & (SHARD_COUNT-1);
+        }
+
+        V get(K key) {
+            return shards[shardIndex(key)].get(key);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param changes entries to add or replace. A null value removes the entry.
+         * @return a copy of this map with the changes applied. This map is unaffected.
+         */
+        ShardedMap<K,V> with(Map<K,V> changes) {
+            if(changes.isEmpty()) {
+                return this;
+            }
+
+            Map<K,V>[] newShards = Arrays.copyOf(shards, SHARD_COUNT);
+            boolean[] copied = new boolean[SHARD_COUNT];
+            int newSize = size;
+            for(Map.Entry<K,V> change : changes.entrySet()) {
+                int shardIndex = shardIndex(change.getKey());
+                if(!copied[shardIndex]) {
+                    newShards[shardIndex] = new HashMap<>(shards[shardIndex]);
+                    copied[shardIndex] = true;
+                }
+                V previous = change.getValue() == null
+                        ? newShards[shardIndex].remove(change.getKey())
+                        : newShards[shardIndex].put(change.getKey(), change.getValue());
+                if(previous == null && change.getValue() != null) {
+                    newSize++;
+                } else if(previous != null && change.getValue() == null) {
+                    newSize--;
+                }
+            }
+            return new ShardedMap<>(newShards, newSize);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.jboss.logging.Logger;
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.Priority;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.interceptor.Interceptor;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the in-memory registry snapshot, and parses the latest schema of the most recently changed subjects,
+ * as soon as the server starts, rather than on first use. Until that's done, or has taken longer than the timeout,
+ * the server reports itself not ready, so that under e.g. OpenShift no traffic is routed to it yet.
+ *
+ * Enabled by default. Disable with perspicuus.warmup.enabled=false, in which case the server is ready immediately.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class RegistryWarmup {
+
+    private static final Logger logger = Logger.getLogger(RegistryWarmup.class);
+
+    @Inject
+    StorageManager storageManager;
+
+    @Inject
+    ParsedSchemaCache parsedSchemaCache;
+
+    @Inject
+    @ConfigurationValue("perspicuus.warmup.enabled")
+    Boolean enabled;
+
+    @Inject
+    @ConfigurationValue("perspicuus.warmup.timeout-seconds")
+    Integer timeoutSeconds;
+
+    // max number of subjects whose latest schema is parsed. More than the parsed schema cache holds is pointless.
+    @Inject
+    @ConfigurationValue("perspicuus.warmup.parsed-schemas")
+    Integer parsedSchemaCount;
+
+    private volatile long startMillis;
+    private volatile boolean complete;
+
+    // after any other startup work e.g. SchemaFingerprintMigration, which must precede loading the snapshot.
+    public void onStartup(@Observes @Priority(Interceptor.Priority.LIBRARY_AFTER) @Initialized(ApplicationScoped.class) Object event) {
+        startMillis = System.currentTimeMillis();
+        if(enabled != null && !enabled) {
+            complete = true;
+            return;
+        }
+
+        Thread thread = new Thread(this::warmup, "perspicuus-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmup() {
+        try {
+            int versionCount = storageManager.getSnapshotVersionCount();
+            int parsedCount = parseLatestSchemas(parsedSchemaCount == null ? 1000 : parsedSchemaCount);
+            logger.infov("warm-up loaded {0} versions and parsed {1} schemas in {2}ms",
+                    versionCount, parsedCount, System.currentTimeMillis()-startMillis);
+        } catch (Exception e) {
+            // the server still works, just more slowly at first, so don't hold it back.
+            logger.warnv(e, "warm-up failed");
+        } finally {
+            complete = true;
+        }
+    }
+
+    // the highest schema ids are the most recently registered, so prefer the subjects using them.
+    private int parseLatestSchemas(int maxCount) {
+        List<SchemaEntity> latestSchemas = new ArrayList<>();
+        for(String subject : storageManager.listSubjectNames()) {
+            SubjectVersionEntity subjectVersionEntity = storageManager.findLatestSubjectVersion(subject);
+            if(subjectVersionEntity != null) {
+                latestSchemas.add(storageManager.findSchema(subjectVersionEntity.getSchemaId()));
+            }
+        }
+        latestSchemas.sort(Comparator.comparing(SchemaEntity::getId).reversed());
+
+        int count = 0;
+        for(SchemaEntity schemaEntity : latestSchemas.subList(0, Math.min(maxCount, latestSchemas.size()))) {
+            try {
+                parsedSchemaCache.getParsedSchema(schemaEntity.getSchemaType().getSchemaParser(), schemaEntity);
+                count++;
+            } catch (RuntimeException e) {
+                logger.debugv(e, "warm-up could not parse schema {0}", schemaEntity.getId());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true once warm-up has finished, failed or timed out, or if it's disabled.
+     */
+    public boolean isReady() {
+        if(complete) {
+            return true;
+        }
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds == null ? 60 : timeoutSeconds);
+        return startMillis != 0 && System.currentTimeMillis()-startMillis > timeoutMillis;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+}
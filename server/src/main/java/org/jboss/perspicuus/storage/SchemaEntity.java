@@ -12,24 +12,37 @@
  */
 package org.jboss.perspicuus.storage;
 
-import org.jboss.perspicuus.parsers.SchemaParser;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 import javax.persistence.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Optional;
 
 /**
  * Storage layer representation of a Schema.
  *
+ * Schemas never change once stored, so are held in a read-only region of the second level cache,
+ * which is safe even with several server instances sharing the database, as there's nothing to invalidate.
+ *
  * @since 2017-02
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+@Table(indexes = {
+        @Index(name = "SchemaEntity_rabinFingerprint", columnList = "rabinFingerprint")
+})
 @NamedQueries({
-        @NamedQuery(name = "SchemaEntity.byHash", query = "SELECT e FROM SchemaEntity e WHERE e.hash=:hash")
+        @NamedQuery(name = "SchemaEntity.byHash", query = "SELECT e FROM SchemaEntity e WHERE e.hash=:hash"),
+        @NamedQuery(name = "SchemaEntity.byIds", query = "SELECT e FROM SchemaEntity e WHERE e.id IN :ids"),
+        @NamedQuery(name = "SchemaEntity.byHashes", query = "SELECT e FROM SchemaEntity e WHERE e.hash IN :hashes"),
+        @NamedQuery(name = "SchemaEntity.afterId", query = "SELECT e FROM SchemaEntity e WHERE e.id > :lastId ORDER BY e.id"),
+        // bulk, rather than via the entity, as the read-only cache region forbids entity updates. Evicts the region.
+        @NamedQuery(name = "SchemaEntity.updateFingerprints",
+                query = "UPDATE SchemaEntity e SET e.hash=:hash, e.rabinFingerprint=:rabinFingerprint WHERE e.id=:id")
 })
 public class SchemaEntity {
 
@@ -40,10 +53,20 @@ public class SchemaEntity {
       structure, requiring a type-appropriate Parser to be applied for e.g. compatibility testing.
      */
 
+    // schema ids are embedded by clients in their serialized data, so must never be reused. Each server instance
+    // takes a block of ID_BLOCK_SIZE of them at a time, saving a round trip to the id sequence for most new schemas.
+    // The blocks are numbered by the same sequence as the ids of earlier versions, which allocated them one at a
+    // time, so the first block taken after an upgrade lies beyond all ids previously allocated.
+    static final int ID_BLOCK_SIZE = 50;
+
     private Integer id;
 
+    // hex encoded SHA-256 of the content.
     private String hash;
 
+    // avro only: CRC-64-AVRO of the Parsing Canonical Form. Not unique, as distinct content may normalize the same.
+    private Long rabinFingerprint;
+
     private String content;
 
     private SchemaType schemaType;
@@ -51,40 +74,27 @@ public class SchemaEntity {
     public SchemaEntity() {}
 
     public SchemaEntity(String schema) {
+        this(schema, null);
+    }
+
+    public SchemaEntity(String schema, SchemaType schemaType) {
+        this(CanonicalSchema.parse(schema, schemaType));
+    }
 
-        Optional<String> canonicalSchema = Optional.empty();
-
-        // the only way to identify the type of schema we've been given is to
-        // try each parser in turn until one accepts it as valid.
-
-        for(SchemaType schemaType : SchemaType.values()) {
-            SchemaParser schemaParser = schemaType.getSchemaParser();
-            canonicalSchema = schemaParser.parseToCanonicalForm(schema);
-            if(canonicalSchema.isPresent()) {
-                this.content = canonicalSchema.get();
-                this.schemaType = schemaType;
-                break;
-            }
-        }
-
-        if(!canonicalSchema.isPresent()) {
-            throw new IllegalArgumentException("can't parse provided schema as any known type");
-        }
-
-        try {
-            // https://avro.apache.org/docs/current/spec.html#Schema+Fingerprints
-            // recommends MD5 or SHA-256, both of which are present as standard in java
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-            messageDigest.update(content.getBytes());
-            byte[] digestBytes = messageDigest.digest();
-            this.hash = Arrays.toString(digestBytes);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+    public SchemaEntity(CanonicalSchema canonicalSchema) {
+        this.content = canonicalSchema.getContent();
+        this.schemaType = canonicalSchema.getSchemaType();
+        this.hash = canonicalSchema.getHash();
+        this.rabinFingerprint = canonicalSchema.getRabinFingerprint();
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.SEQUENCE)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "SchemaEntity_id")
+    @GenericGenerator(name = "SchemaEntity_id", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = SequenceStyleGenerator.DEF_SEQUENCE_NAME),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = ""+ID_BLOCK_SIZE),
+            @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "hilo")
+    })
     public Integer getId() {
         return id;
     }
@@ -93,7 +103,7 @@ public class SchemaEntity {
         this.id = id;
     }
 
-    @Column(nullable = false, unique = true)
+    @Column(nullable = false, unique = true, length = 64)
     public String getHash() {
         return hash;
     }
@@ -102,6 +112,14 @@ public class SchemaEntity {
         this.hash = hash;
     }
 
+    public Long getRabinFingerprint() {
+        return rabinFingerprint;
+    }
+
+    public void setRabinFingerprint(Long rabinFingerprint) {
+        this.rabinFingerprint = rabinFingerprint;
+    }
+
     @Column(nullable = false)
     @Lob
     public String getContent() {
@@ -119,8 +137,4 @@ public class SchemaEntity {
     public void setSchemaType(SchemaType schemaType) {
         this.schemaType = schemaType;
     }
-
-    public boolean isCompatibleWith(String compatibilityLevel, String secondSchema) {
-        return schemaType.getSchemaParser().isCompatibleWith(compatibilityLevel, Collections.singletonList(this.content), secondSchema);
-    }
 }
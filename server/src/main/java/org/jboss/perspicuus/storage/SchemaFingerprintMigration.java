@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.hibernate.Session;
+import org.jboss.logging.Logger;
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.util.List;
+
+/**
+ * One-off upgrade of stored schema rows written by earlier versions, which held the SHA-256 fingerprint
+ * in a verbose decimal array form rather than hex, and had no Rabin fingerprint for avro schema.
+ *
+ * Disabled by default, since it scans the whole table. Enable it for one start of the server
+ * by setting perspicuus.storage.migrate-fingerprints to true.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@ApplicationScoped
+public class SchemaFingerprintMigration {
+
+    private static final Logger logger = Logger.getLogger(SchemaFingerprintMigration.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    @PersistenceUnit(unitName = "perspicuus")
+    private EntityManagerFactory entityManagerFactory;
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.migrate-fingerprints")
+    Boolean enabled;
+
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if(enabled != null && enabled) {
+            migrate();
+        }
+    }
+
+    public int migrate() {
+        logger.infov("migrating schema fingerprints");
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        // changes are written by bulk update instead, see SchemaEntity.updateFingerprints
+        entityManager.unwrap(Session.class).setDefaultReadOnly(true);
+        int lastId = 0;
+        int migratedCount = 0;
+
+        try {
+            List<SchemaEntity> batch;
+            do {
+                entityManager.getTransaction().begin();
+
+                batch = entityManager.createQuery("SELECT e FROM SchemaEntity e WHERE e.id > :lastId ORDER BY e.id", SchemaEntity.class)
+                        .setParameter("lastId", lastId)
+                        .setMaxResults(BATCH_SIZE)
+                        .getResultList();
+
+                for(SchemaEntity schemaEntity : batch) {
+                    lastId = schemaEntity.getId();
+                    if(migrate(schemaEntity)) {
+                        entityManager.createNamedQuery("SchemaEntity.updateFingerprints")
+                                .setParameter("hash", schemaEntity.getHash())
+                                .setParameter("rabinFingerprint", schemaEntity.getRabinFingerprint())
+                                .setParameter("id", schemaEntity.getId())
+                                .executeUpdate();
+                        migratedCount++;
+                    }
+                }
+
+                entityManager.getTransaction().commit();
+                entityManager.clear();
+            } while(!batch.isEmpty());
+        } finally {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+
+        logger.infov("migrated fingerprints of {0} schemas", migratedCount);
+        return migratedCount;
+    }
+
+    private boolean migrate(SchemaEntity schemaEntity) {
+        boolean changed = false;
+
+        String hash = CanonicalSchema.hash(schemaEntity.getContent());
+        if(!hash.equals(schemaEntity.getHash())) {
+            schemaEntity.setHash(hash);
+            changed = true;
+        }
+
+        if(schemaEntity.getRabinFingerprint() == null) {
+            Long rabinFingerprint = schemaEntity.getSchemaType().getSchemaParser().fingerprint64(schemaEntity.getContent());
+            if(rabinFingerprint != null) {
+                schemaEntity.setRabinFingerprint(rabinFingerprint);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+}
@@ -17,6 +17,10 @@ import org.jboss.perspicuus.parsers.JsonSchemaSchemaParser;
 import org.jboss.perspicuus.parsers.ProtobufSchemaParser;
 import org.jboss.perspicuus.parsers.SchemaParser;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * The set of Schema dialects that the system knows how to handle.
  *
@@ -29,13 +33,100 @@ public enum SchemaType {
     PROTOBUF(new ProtobufSchemaParser()),
     JSON_SCHEMA(new JsonSchemaSchemaParser());
 
-    private final SchemaParser schemaParser;
+    private final SchemaParser<?> schemaParser;
 
-    SchemaType(SchemaParser schemaParser) {
+    SchemaType(SchemaParser<?> schemaParser) {
         this.schemaParser = schemaParser;
     }
 
-    public SchemaParser getSchemaParser() {
+    public SchemaParser<?> getSchemaParser() {
         return schemaParser;
     }
+
+    /**
+     * Map the name of a schema type, as used by the REST API, to a SchemaType.
+     * Accepts both our own names and Confluent's ("AVRO", "PROTOBUF", "JSON").
+     *
+     * @param name
+     * @return the matching SchemaType, or null if the name is not recognised.
+     */
+    public static SchemaType forName(String name) {
+        if(name == null) {
+            return null;
+        }
+        switch (name.toUpperCase()) {
+            case "AVRO":
+                return AVRO;
+            case "PROTOBUF":
+                return PROTOBUF;
+            case "JSON":
+            case "JSON_SCHEMA":
+                return JSON_SCHEMA;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Cheaply guess the type of the given raw schema from its first significant character, without parsing it.
+     * The result is a hint for which parser to try first, not a guarantee that parser will accept the schema.
+     *
+     * Json of any kind is reported as avro, whose parser is tried first when the type isn't given, as it's the
+     * stricter of the two json dialects: telling them apart would take a parse, which would cost avro schemas,
+     * the most common, more than the failed avro parse costs JsonSchema ones. Anything else is protobuf.
+     *
+     * @param rawSchema
+     * @return the probable SchemaType, or null if no reasonable guess can be made.
+     */
+    public static SchemaType detect(String rawSchema) {
+        int i = 0;
+        while(i < rawSchema.length()) {
+            char c = rawSchema.charAt(i);
+            if(Character.isWhitespace(c)) {
+                i++;
+            } else if(rawSchema.startsWith("//", i)) {
+                // avro's parser accepts comments too, so skip them rather than take them as a sign of protobuf.
+                int end = rawSchema.indexOf('\n', i);
+                i = end == -1 ? rawSchema.length() : end+1;
+            } else if(rawSchema.startsWith("/*", i)) {
+                int end = rawSchema.indexOf("*/", i+2);
+                i = end == -1 ? rawSchema.length() : end+2;
+            } else {
+                switch (c) {
+                    case '{': // avro named type or JsonSchema
+                    case '"': // avro primitive or named type
+                    case '[': // avro union
+                        return AVRO;
+                    default:
+                        return PROTOBUF;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the SchemaTypes whose parsers should be tried for the given schema, in order.
+     *
+     * @param rawSchema
+     * @param schemaType the schema's type, in which case only its parser is tried, or null to guess it from the content.
+     * @return
+     */
+    public static List<SchemaType> candidatesFor(String rawSchema, SchemaType schemaType) {
+        if(schemaType != null) {
+            return Collections.singletonList(schemaType);
+        }
+        SchemaType detectedType = detect(rawSchema);
+        if(detectedType == AVRO) {
+            return JSON_CANDIDATES;
+        }
+        if(detectedType == PROTOBUF) {
+            return PROTOBUF_CANDIDATES;
+        }
+        return Arrays.asList(values());
+    }
+
+    // the remaining parsers are a fallback, should the guess be wrong. Json is never protobuf, so that's tried last.
+    private static final List<SchemaType> JSON_CANDIDATES = Collections.unmodifiableList(Arrays.asList(AVRO, JSON_SCHEMA, PROTOBUF));
+    private static final List<SchemaType> PROTOBUF_CANDIDATES = Collections.unmodifiableList(Arrays.asList(PROTOBUF, AVRO, JSON_SCHEMA));
 }
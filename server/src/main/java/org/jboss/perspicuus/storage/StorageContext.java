@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.RequestScoped;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Per-request storage state: whether the request may modify storage, and the jpa provider's EntityManager.
+ *
+ * Held by the request rather than by whichever thread happens to be serving it, so the providers,
+ * being application scoped, keep no per-thread state of their own. Work done outside of a request,
+ * e.g. on the change log thread or the executors' pools, activates a request context for the purpose.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@RequestScoped
+public class StorageContext {
+
+    private Boolean readOnly;
+
+    // opened lazily by the jpa provider, so requests that don't touch the database never open one.
+    private EntityManager entityManager;
+
+    /**
+     * @param readOnly if true, storage may not be modified until the matching cleanup.
+     */
+    public void init(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Roll back anything left uncommitted, and release the EntityManager, if any.
+     */
+    public void cleanup() {
+        if(entityManager != null) {
+            try {
+                EntityTransaction transaction = entityManager.getTransaction();
+                if(transaction.isActive()) {
+                    transaction.rollback();
+                }
+            } finally {
+                entityManager.close();
+                entityManager = null;
+            }
+        }
+        readOnly = null;
+    }
+
+    /**
+     * @return true if init has been called without a matching cleanup.
+     */
+    public boolean isActive() {
+        return readOnly != null;
+    }
+
+    public boolean isReadOnly() {
+        if(readOnly == null) {
+            throw new IllegalStateException("no storage context for request");
+        }
+        return readOnly;
+    }
+
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    public void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    // in case the request ended without the cleanup, e.g. on an error before the response filters ran.
+    @PreDestroy
+    void destroy() {
+        cleanup();
+    }
+}
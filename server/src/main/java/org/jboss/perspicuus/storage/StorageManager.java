@@ -12,12 +12,33 @@
  */
 package org.jboss.perspicuus.storage;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.Striped;
+import org.jboss.logging.Logger;
+import org.wildfly.swarm.spi.runtime.annotations.ConfigurationValue;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import javax.persistence.*;
+import javax.enterprise.context.control.RequestContextController;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 /**
- * Storage layer functions. Uses JDBC database via JPA.
+ * Storage layer functions. Persistence is delegated to a StorageProvider, selected by
+ * perspicuus.storage.provider: 'jpa' (the default) for a JDBC database, or 'log' for an embedded append-only log.
+ *
+ * Reads are served entirely from an immutable in-memory snapshot of the registry, loaded from the provider
+ * on first use and replaced by an updated copy after each modification made through this class.
+ * Where the provider's storage may be shared with other server instances, their modifications are learned of
+ * by polling its change log in the background, so the snapshot lags them by around the poll interval.
  *
  * @since 2017-02
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
@@ -25,192 +46,562 @@ import java.util.*;
 @ApplicationScoped
 public class StorageManager {
 
-    @PersistenceUnit(unitName = "perspicuus")
-    private EntityManagerFactory entityManagerFactory;
+    private static final Logger logger = Logger.getLogger(StorageManager.class);
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.provider")
+    String providerName;
+
+    @Inject
+    JpaStorageProvider jpaStorageProvider;
+
+    @Inject
+    LogStorageProvider logStorageProvider;
+
+    private StorageProvider storageProvider;
+
+    @Inject
+    StorageContext storageContext;
+
+    @Inject
+    Instance<RequestContextController> requestContextControllers;
+
+    @Inject
+    @ConfigurationValue("perspicuus.cache.canonical.megabytes")
+    Integer canonicalCacheMegabytes;
+
+    // raw schema text (plus given type, if any) -> parsed form. Clients tend to send the same raw schema repeatedly,
+    // so this saves parsing, normalizing and hashing it each time just to look it up.
+    private Cache<RawSchemaKey, CanonicalSchema> canonicalCache;
+
+    // all reads are served from this. It's replaced, never modified, so readers need no locks.
+    private volatile RegistrySnapshot snapshot;
+
+    // serialises replacement of the snapshot.
+    private final Object snapshotMutex = new Object();
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.changelog.poll-interval-ms")
+    Long changeLogPollIntervalMillis;
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.changelog.gap-timeout-ms")
+    Long changeLogGapTimeoutMillis;
+
+    @Inject
+    @ConfigurationValue("perspicuus.storage.changelog.retention-minutes")
+    Long changeLogRetentionMinutes;
+
+    // null if the provider has no change log, or the snapshot isn't loaded yet, as until then there's nothing to update.
+    private volatile ChangeLogTailer changeLogTailer;
 
-    ThreadLocal<EntityManager> threadEntityManager = new ThreadLocal<>();
+    private ScheduledExecutorService changeLogExecutor;
 
-    public void threadInit() {
-        EntityManager entityManager = threadEntityManager.get();
-        if(entityManager == null) {
-            entityManager = entityManagerFactory.createEntityManager();
-            threadEntityManager.set(entityManager);
+    private volatile long lastPruneMillis;
+
+    // serialises modification of a subject's versions within this process, so concurrent registrations
+    // queue rather than colliding in the database. Identical ones then find the work already done.
+    private final Striped<Lock> subjectLocks = Striped.lazyWeakLock(256);
+
+    @PostConstruct
+    public void init() {
+        if(providerName == null || "jpa".equals(providerName)) {
+            storageProvider = jpaStorageProvider;
+        } else if("log".equals(providerName)) {
+            storageProvider = logStorageProvider;
+        } else {
+            throw new IllegalArgumentException("unknown storage provider "+providerName);
+        }
+        logger.infov("using storage provider {0}", providerName == null ? "jpa" : providerName);
+
+        // bounded by the text held rather than entry count, as schemas vary from tens of bytes to tens of KB.
+        canonicalCache = CacheBuilder.newBuilder()
+                .maximumWeight((canonicalCacheMegabytes == null ? 16 : canonicalCacheMegabytes) * 1024L * 1024L)
+                .weigher((RawSchemaKey key, CanonicalSchema canonicalSchema) -> key.getWeight() + 2*canonicalSchema.getContent().length())
+                .recordStats()
+                .build();
+    }
+
+    @PreDestroy
+    public void close() {
+        if(changeLogExecutor != null) {
+            changeLogExecutor.shutdownNow();
+        }
+    }
+
+    // called with the snapshotMutex held, before the snapshot is first loaded.
+    private void startChangeLogTailer(long nowMillis) {
+        ChangeLogTailer tailer = new ChangeLogTailer(storageProvider, this::refresh,
+                changeLogGapTimeoutMillis == null ? 10000 : changeLogGapTimeoutMillis);
+        // before loading, so changes racing with it are applied again afterwards.
+        tailer.start(nowMillis);
+        changeLogTailer = tailer;
+
+        changeLogExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "perspicuus-changelog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = changeLogPollIntervalMillis == null ? 1000 : changeLogPollIntervalMillis;
+        changeLogExecutor.scheduleWithFixedDelay(this::pollChangeLog, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // runs on the changeLogExecutor.
+    private void pollChangeLog() {
+        try {
+            long now = System.currentTimeMillis();
+            changeLogTailer.poll(now);
+
+            long retentionMillis = TimeUnit.MINUTES.toMillis(changeLogRetentionMinutes == null ? 60 : changeLogRetentionMinutes);
+            if(now-lastPruneMillis > retentionMillis/10) {
+                lastPruneMillis = now;
+                int count = changeLogTailer.prune(retentionMillis, now);
+                logger.debugv("pruned {0} change log entries", count);
+            }
+        } catch (Exception e) {
+            // keep going, as the next attempt may succeed. Meanwhile the staleness figure will grow.
+            logger.warnv(e, "change log poll failed");
         }
-        entityManager.getTransaction().begin();
     }
 
-    public void threadCleanup() {
-        EntityManager entityManager = threadEntityManager.get();
-        if(entityManager != null) {
-            EntityTransaction transaction = entityManager.getTransaction();
-            if(transaction.isActive()) {
-                transaction.rollback();
+    // bring the snapshot up to date with changes to the given subjects made by other server instances.
+    private void refresh(Set<String> subjects) {
+        List<Lock> locks = lockAll(subjects);
+        // the change log thread has no request of its own, so the storage context needs one activating.
+        RequestContextController requestContextController = requestContextControllers.get();
+        boolean activated = requestContextController.activate();
+        try {
+            storageContext.init(true);
+            try {
+                publish(subjects);
+            } finally {
+                storageContext.cleanup();
             }
-            entityManager.close();
-            threadEntityManager.remove();
+        } finally {
+            if(activated) {
+                requestContextController.deactivate();
+            }
+            requestContextControllers.destroy(requestContextController);
+            unlockAll(locks);
         }
     }
 
-    public SchemaEntity findByHash(String schema) {
+    private List<Lock> lockAll(Collection<String> subjects) {
+        List<Lock> locks = new ArrayList<>();
+        for(Lock lock : subjectLocks.bulkGet(subjects)) {
+            lock.lock();
+            locks.add(lock);
+        }
+        return locks;
+    }
 
-        SchemaEntity schemaEntity = new SchemaEntity(schema);
+    private void unlockAll(List<Lock> locks) {
+        for(int i = locks.size()-1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
 
-        EntityManager entityManager = threadEntityManager.get();
 
-        SchemaEntity result = null;
+    public CacheStats getCanonicalCacheStats() {
+        return canonicalCache.stats();
+    }
 
-        TypedQuery<SchemaEntity> query = entityManager.createNamedQuery("SchemaEntity.byHash", SchemaEntity.class);
-        query.setParameter("hash", schemaEntity.getHash());
-        List<SchemaEntity> schemaEntities = query.getResultList();
+    public long getCanonicalCacheSize() {
+        return canonicalCache.size();
+    }
 
-        if (!schemaEntities.isEmpty()) {
-            result = schemaEntities.get(0);
-        }
+    public int getSnapshotSchemaCount() {
+        return getSnapshot().getSchemaCount();
+    }
 
-        return result;
+    public int getSnapshotSubjectCount() {
+        return getSnapshot().getSubjectCount();
     }
 
-    public List<SchemaEntity> getSchemas(String subject) {
-        EntityManager entityManager = threadEntityManager.get();
-        SubjectEntity subjectEntity = findSubject(subject);
-        if(subjectEntity == null) {
-            return Collections.emptyList();
+    public int getSnapshotVersionCount() {
+        return getSnapshot().getVersionCount();
+    }
+
+    public Map<String, StorageProvider.CacheStatistics> getStorageCacheStatistics() {
+        return storageProvider.getCacheStatistics();
+    }
+
+    public boolean hasChangeLog() {
+        return storageProvider.hasChangeLog();
+    }
+
+    /**
+     * @return an upper bound, in milliseconds, on how far the snapshot lags changes made by other server instances.
+     */
+    public long getChangeLogStalenessMillis() {
+        return changeLogTailer == null ? 0 : changeLogTailer.getStalenessMillis(System.currentTimeMillis());
+    }
+
+    public long getChangeLogLastAppliedLagMillis() {
+        return changeLogTailer == null ? 0 : changeLogTailer.getLastAppliedLagMillis();
+    }
+
+    public long getChangeLogAppliedCount() {
+        return changeLogTailer == null ? 0 : changeLogTailer.getAppliedCount();
+    }
+
+    public long getChangeLogPosition() {
+        return changeLogTailer == null ? 0 : changeLogTailer.getPosition();
+    }
+
+    private static class RawSchemaKey {
+        private final String rawSchema;
+        private final SchemaType schemaType;
+
+        RawSchemaKey(String rawSchema, SchemaType schemaType) {
+            this.rawSchema = rawSchema;
+            this.schemaType = schemaType;
         }
-        Query query = entityManager.createQuery("SELECT s FROM SchemaEntity s WHERE s.id IN :idList");
-        query.setParameter("idList", subjectEntity.getSchemaIds());
 
-        Map<Integer,SchemaEntity> map = new HashMap<>();
-        for(SchemaEntity e : (List<SchemaEntity>)query.getResultList()) {
-            map.put(e.getId(), e);
+        // approximately, in bytes, as two per char.
+        int getWeight() {
+            return 2*rawSchema.length();
         }
-        List<SchemaEntity> results =  new ArrayList<>(map.size());
-        for(Integer i : subjectEntity.getSchemaIds()) {
-            SchemaEntity schemaEntity = map.get(i);
-            if(schemaEntity != null) {
-                results.add(map.get(i));
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
             }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RawSchemaKey that = (RawSchemaKey) o;
+            return rawSchema.equals(that.rawSchema) && schemaType == that.schemaType;
         }
 
-        return results;
+        @Override
+        public int hashCode() {
+            return Objects.hash(rawSchema, schemaType);
+        }
     }
 
+    /**
+     * Parse the given raw schema to its canonical form, reusing a previous result for the same input where possible.
+     *
+     * @param schema
+     * @param schemaType the schema's type, or null to guess it from the content.
+     * @return
+     * @throws IllegalArgumentException if the schema is not valid for the given type, or if none is given, for any known type.
+     */
+    public CanonicalSchema canonicalize(String schema, SchemaType schemaType) {
+        RawSchemaKey key = new RawSchemaKey(schema, schemaType);
+        CanonicalSchema canonicalSchema = canonicalCache.getIfPresent(key);
+        if(canonicalSchema == null) {
+            canonicalSchema = CanonicalSchema.parse(schema, schemaType);
+            canonicalCache.put(key, canonicalSchema);
+        }
+        return canonicalSchema;
+    }
 
-    public SchemaEntity findSchema(int id) {
 
-        EntityManager entityManager = threadEntityManager.get();
+    private RegistrySnapshot getSnapshot() {
+        RegistrySnapshot result = snapshot;
+        if(result == null) {
+            synchronized (snapshotMutex) {
+                result = snapshot;
+                if(result == null) {
+                    result = loadSnapshot();
+                    snapshot = result;
+                }
+            }
+        }
+        return result;
+    }
 
-        SchemaEntity schemaEntity = null;
+    private RegistrySnapshot loadSnapshot() {
+        long start = System.currentTimeMillis();
+        if(storageProvider.hasChangeLog()) {
+            startChangeLogTailer(start);
+        }
+        RegistrySnapshot.Builder builder = new RegistrySnapshot.Builder();
+        storageProvider.scanSchemas(builder::addSchema);
+        storageProvider.scanSubjects(builder::addSubject);
+        storageProvider.scanSubjectVersions(builder::addSubjectVersion);
+        RegistrySnapshot result = builder.build();
+        logger.infov("loaded {0} schemas, {1} subjects and {2} versions in {3}ms",
+                result.getSchemaCount(), result.getSubjectCount(), result.getVersionCount(), System.currentTimeMillis()-start);
+        return result;
+    }
 
-        schemaEntity = entityManager.find(SchemaEntity.class, id);
+    // replace the snapshot with one reflecting the provider's current state for the given subjects.
+    // Called with the subjects' locks held, once the provider has committed changes to them, so their state
+    // can't change again through this instance until after the snapshot has been replaced.
+    private void publish(Collection<String> subjects) {
+        RegistrySnapshot current = getSnapshot();
+        List<SubjectEntity> subjectEntities = storageProvider.findSubjects(subjects);
+        List<SubjectVersionEntity> subjectVersionEntities = storageProvider.findAllSubjectVersions(subjects);
+        Set<Integer> newSchemaIds = new HashSet<>();
+        for(SubjectVersionEntity subjectVersionEntity : subjectVersionEntities) {
+            if(!current.containsSchema(subjectVersionEntity.getSchemaId())) {
+                newSchemaIds.add(subjectVersionEntity.getSchemaId());
+            }
+        }
+        List<SchemaEntity> newSchemaEntities = newSchemaIds.isEmpty() ? Collections.emptyList() : storageProvider.findSchemas(newSchemaIds);
 
-        return schemaEntity;
+        synchronized (snapshotMutex) {
+            snapshot = snapshot.withChanges(newSchemaEntities, subjectEntities, subjectVersionEntities);
+        }
     }
 
-    public SubjectEntity findSubject(String name) {
+    /**
+     * Establish the storage context for the current request.
+     *
+     * @param readOnly if true, storage may not be modified.
+     */
+    public void contextInit(boolean readOnly) {
+        storageContext.init(readOnly);
+    }
 
-        EntityManager entityManager = threadEntityManager.get();
+    public void contextCleanup() {
+        storageContext.cleanup();
+    }
 
-        SubjectEntity subjectEntity;
+    public boolean hasContext() {
+        return storageContext.isActive();
+    }
 
-        subjectEntity = entityManager.find(SubjectEntity.class, name);
+    public SchemaEntity findByHash(String schema) {
+        return findByHash(schema, null);
+    }
 
-        return subjectEntity;
+    public SchemaEntity findByHash(String schema, SchemaType schemaType) {
+        CanonicalSchema canonicalSchema = canonicalize(schema, schemaType);
+        return getSnapshot().findByHash(canonicalSchema.getHash());
     }
 
-    public List<String> listSubjectNames() {
+    /**
+     * Find the earliest registered avro schema having the given CRC-64-AVRO fingerprint.
+     *
+     * @param rabinFingerprint
+     * @return the schema, or null if there isn't one.
+     */
+    public SchemaEntity findByRabinFingerprint(long rabinFingerprint) {
+        return getSnapshot().findByRabinFingerprint(rabinFingerprint);
+    }
 
-        EntityManager entityManager = threadEntityManager.get();
+    /**
+     * Get the schemas of all (non-deleted) versions of the given subject.
+     *
+     * @param subject
+     * @return the schemas, in version order i.e. most recent last.
+     */
+    public List<SchemaEntity> getSchemas(String subject) {
+        return getSnapshot().getSchemas(subject);
+    }
 
-        List<String> results = null;
+    /**
+     * Get the (non-deleted) version numbers of the given subject.
+     *
+     * @param subject
+     * @return the versions, in ascending order.
+     */
+    public List<Integer> listSubjectVersions(String subject) {
+        return getSnapshot().listSubjectVersions(subject);
+    }
 
-        TypedQuery<String> query = entityManager.createNamedQuery("SubjectEntity.allNames", String.class);
-        results = query.getResultList();
+    /**
+     * Find the given version of the subject, which may be a deleted one.
+     *
+     * @param subject
+     * @param version
+     * @return the version, or null if there isn't one.
+     */
+    public SubjectVersionEntity findSubjectVersion(String subject, int version) {
+        return getSnapshot().findSubjectVersion(subject, version);
+    }
 
-        return results;
+    /**
+     * Find the most recent non-deleted version of the subject.
+     *
+     * @param subject
+     * @return the version, or null if there isn't one.
+     */
+    public SubjectVersionEntity findLatestSubjectVersion(String subject) {
+        return getSnapshot().findLatestSubjectVersion(subject);
     }
 
-    private SubjectEntity ensureSubject(String subject) {
-        EntityManager entityManager = threadEntityManager.get();
-        SubjectEntity subjectEntity = entityManager.find(SubjectEntity.class, subject);
-        if (subjectEntity == null) {
-            subjectEntity = new SubjectEntity();
-            subjectEntity.setName(subject);
-            subjectEntity.setSchemaIds(new ArrayList<>());
-            entityManager.persist(subjectEntity);
-        }
-        return subjectEntity;
+    /**
+     * Find the earliest non-deleted version of the subject having the given schema.
+     *
+     * @param subject
+     * @param schemaId
+     * @return the version, or null if there isn't one.
+     */
+    public SubjectVersionEntity findSubjectVersionBySchemaId(String subject, int schemaId) {
+        return getSnapshot().findSubjectVersionBySchemaId(subject, schemaId);
     }
 
-    public void setCompatibility(String subject, String compatibility) {
+    /**
+     * Find all the non-deleted subject versions using the given schema.
+     *
+     * @param schemaId
+     * @return the versions, ordered by subject then version.
+     */
+    public List<SubjectVersionEntity> findUsesOfSchema(int schemaId) {
+        return getSnapshot().findUsesOfSchema(schemaId);
+    }
 
-        EntityManager entityManager = threadEntityManager.get();
+    /**
+     * Determine if the subject has had versions registered, but all of them have since been deleted.
+     *
+     * @param subject
+     * @return
+     */
+    public boolean isSubjectDeleted(String subject) {
+        RegistrySnapshot registrySnapshot = getSnapshot();
+        return registrySnapshot.findLatestSubjectVersion(subject) == null && registrySnapshot.getMaxVersion(subject) > 0;
+    }
 
-        SubjectEntity subjectEntity = ensureSubject(subject);
+    public SchemaEntity findSchema(int id) {
+        return getSnapshot().findSchema(id);
+    }
 
-        if(!compatibility.equals(subjectEntity.getCompatibility())) {
-            subjectEntity.setCompatibility(compatibility);
-            entityManager.getTransaction().commit();
-            entityManager.getTransaction().begin();
+    /**
+     * Find many schemas by id.
+     *
+     * @param ids
+     * @return the schemas found, keyed by id and in the iteration order of the given ids. Unknown ids are omitted.
+     */
+    public Map<Integer, SchemaEntity> findSchemas(Collection<Integer> ids) {
+        RegistrySnapshot registrySnapshot = getSnapshot();
+        Map<Integer, SchemaEntity> results = new LinkedHashMap<>();
+        for(Integer id : ids) {
+            SchemaEntity schemaEntity = registrySnapshot.findSchema(id);
+            if(schemaEntity != null) {
+                results.put(id, schemaEntity);
+            }
         }
+        return results;
     }
 
-    public int register(String subject, String schema) {
+    public SubjectEntity findSubject(String name) {
+        return getSnapshot().findSubject(name);
+    }
 
-        EntityManager entityManager = threadEntityManager.get();
+    /**
+     * @return the names of all subjects, including those whose versions are all deleted, in name order.
+     * The list is an unmodifiable view of the in-memory snapshot, so costs nothing to obtain.
+     */
+    public List<String> listSubjectNames() {
+        return getSnapshot().listSubjectNames();
+    }
 
-        int schemaId = -1;
+    /**
+     * As listSubjectNames, but restricted to a range of names.
+     *
+     * @param prefix if not null, only names starting with this are listed.
+     * @param after if not null, only names ordered after this are listed, e.g. the last name of a previous page.
+     * @return
+     */
+    public List<String> listSubjectNames(String prefix, String after) {
+        return getSnapshot().listSubjectNames(prefix, after);
+    }
 
-        SchemaEntity schemaEntity = findByHash(schema);
-        if (schemaEntity == null) {
-            schemaEntity = new SchemaEntity(schema);
-            entityManager.persist(schemaEntity);
+    public void setCompatibility(String subject, String compatibility) {
+        Lock lock = subjectLocks.get(subject);
+        lock.lock();
+        try {
+            storageProvider.setCompatibility(subject, compatibility);
+            publish(Collections.singleton(subject));
+        } finally {
+            lock.unlock();
         }
-        schemaId = schemaEntity.getId();
+    }
 
-        SubjectEntity subjectEntity = ensureSubject(subject);
+    /**
+     * Get the lock that serialises modification of the given subject's versions within this process.
+     * Callers that must check the subject's state before registering, e.g. for compatibility,
+     * should hold it across both steps. It's reentrant, so they may call register whilst holding it.
+     *
+     * @param subject
+     * @return
+     */
+    public Lock getSubjectLock(String subject) {
+        return subjectLocks.get(subject);
+    }
 
-        boolean found = false;
-        for(int id : subjectEntity.getSchemaIds()) {
-            if(id == schemaId) {
-                found = true;
-                break;
-            }
-        }
+    /**
+     * Get the locks for the given subjects, as per getSubjectLock. Callers needing several should acquire them
+     * in the order returned, which is consistent between calls, so that concurrent callers can't deadlock.
+     *
+     * @param subjects
+     * @return
+     */
+    public Iterable<Lock> getSubjectLocks(Collection<String> subjects) {
+        return subjectLocks.bulkGet(subjects);
+    }
 
-        if(!found) {
-            subjectEntity.getSchemaIds().add(schemaId);
-            entityManager.getTransaction().commit();
-            entityManager.getTransaction().begin();
-        }
+    public int register(String subject, String schema) {
+        return register(subject, schema, null);
+    }
 
-        return schemaId;
+    public int register(String subject, String schema, SchemaType schemaType) {
+        Registration registration = new Registration(subject, canonicalize(schema, schemaType));
+        return register(Collections.singletonList(registration)).get(0);
     }
 
-    public void deleteSchemaAtIndex(SubjectEntity subjectEntity, int index) {
-        EntityManager entityManager = threadEntityManager.get();
-        if(subjectEntity.getSchemaIds().get(index) != 0) {
-            subjectEntity.getSchemaIds().set(index, 0);
-            entityManager.getTransaction().commit();
-            entityManager.getTransaction().begin();
+    /**
+     * One item of a batch registration.
+     */
+    public static class Registration {
+        public final String subject;
+        public final CanonicalSchema canonicalSchema;
+
+        public Registration(String subject, CanonicalSchema canonicalSchema) {
+            this.subject = subject;
+            this.canonicalSchema = canonicalSchema;
         }
     }
 
-    public List<Integer> deleteAllSchemasFromSubject(SubjectEntity subjectEntity) {
-        EntityManager entityManager = threadEntityManager.get();
+    /**
+     * Register a batch of schemas. Registrations for the same subject take effect in list order.
+     *
+     * @param registrations
+     * @return the schema ids, in the same order as the registrations.
+     */
+    public List<Integer> register(List<Registration> registrations) {
+
+        Set<String> subjects = new LinkedHashSet<>();
+        for(Registration registration : registrations) {
+            subjects.add(registration.subject);
+        }
 
-        List<Integer> schemaIds = subjectEntity.getSchemaIds();
-        ArrayList<Integer> versions = new ArrayList<>(schemaIds.size());
-        for(int i = 0; i < schemaIds.size(); i++) {
-            if(schemaIds.get(i) != 0) {
-                // versions number from one, arrays from 0, so remember to offset...
-                versions.add(i+1);
-                schemaIds.set(i, 0);
-            }
+        List<Lock> locks = lockAll(subjects);
+        try {
+            List<Integer> schemaIds = storageProvider.register(registrations);
+            publish(subjects);
+            return schemaIds;
+        } finally {
+            unlockAll(locks);
         }
+    }
 
-        entityManager.getTransaction().commit();
-        entityManager.getTransaction().begin();
+    public void deleteSubjectVersion(String subject, int version) {
+        Lock lock = subjectLocks.get(subject);
+        lock.lock();
+        try {
+            storageProvider.deleteSubjectVersion(subject, version);
+            publish(Collections.singleton(subject));
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        return versions;
+    public List<Integer> deleteAllSchemasFromSubject(String subject) {
+        Lock lock = subjectLocks.get(subject);
+        lock.lock();
+        try {
+            List<Integer> versions = storageProvider.deleteAllSchemasFromSubject(subject);
+            publish(Collections.singleton(subject));
+            return versions;
+        } finally {
+            lock.unlock();
+        }
     }
 }
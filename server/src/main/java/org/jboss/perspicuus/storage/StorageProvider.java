@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Integration point for persistent storage backends.
+ *
+ * StorageManager serves reads from an in-memory view of the registry, built by scanning the provider at startup
+ * and updated after each modification, so providers are read only in bulk and by writers.
+ * Modifications of a subject are made with that subject's StorageManager lock held.
+ *
+ * Providers whose storage may be shared by several server instances must also keep a change log,
+ * from which each instance learns of the others' modifications. Those for a single instance needn't.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public interface StorageProvider {
+
+    /**
+     * @param ids
+     * @return the schemas found, in no particular order. Unknown ids are omitted.
+     */
+    List<SchemaEntity> findSchemas(Collection<Integer> ids);
+
+    /**
+     * @param names
+     * @return the subjects found, in no particular order. Unknown names are omitted.
+     */
+    List<SubjectEntity> findSubjects(Collection<String> names);
+
+    /**
+     * @param subjects
+     * @return all versions of the subjects, including deleted ones, ordered by subject then version.
+     */
+    List<SubjectVersionEntity> findAllSubjectVersions(Collection<String> subjects);
+
+    /**
+     * Pass every stored schema to the given consumer, for building an in-memory view of the registry.
+     * Uses a storage context of its own, so may be called regardless of the current request's.
+     *
+     * @param consumer
+     */
+    void scanSchemas(Consumer<SchemaEntity> consumer);
+
+    /**
+     * As scanSchemas, but for subjects.
+     *
+     * @param consumer
+     */
+    void scanSubjects(Consumer<SubjectEntity> consumer);
+
+    /**
+     * As scanSchemas, but for subject versions, including deleted ones.
+     *
+     * @param consumer
+     */
+    void scanSubjectVersions(Consumer<SubjectVersionEntity> consumer);
+
+    void setCompatibility(String subject, String compatibility);
+
+    /**
+     * Register a batch of schemas. A schema already live in its subject gets no new version.
+     * Registrations for the same subject take effect in list order.
+     *
+     * @param registrations
+     * @return the schema ids, in the same order as the registrations.
+     */
+    List<Integer> register(List<StorageManager.Registration> registrations);
+
+    /**
+     * Mark a version deleted. Has no effect if there is no such non-deleted version.
+     *
+     * @param subject
+     * @param version
+     */
+    void deleteSubjectVersion(String subject, int version);
+
+    /**
+     * @param subject
+     * @return the version numbers deleted.
+     */
+    List<Integer> deleteAllSchemasFromSubject(String subject);
+
+    /**
+     * Effectiveness of a cache internal to the provider.
+     */
+    class CacheStatistics {
+        // -1 if unknown
+        public final long size;
+        public final long hitCount;
+        public final long missCount;
+        public final long putCount;
+
+        public CacheStatistics(long size, long hitCount, long missCount, long putCount) {
+            this.size = size;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.putCount = putCount;
+        }
+    }
+
+    /**
+     * @return statistics for each of the provider's internal caches, by name. Empty if it has none.
+     */
+    default Map<String, CacheStatistics> getCacheStatistics() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return true if this provider keeps a change log, as described below.
+     */
+    default boolean hasChangeLog() {
+        return false;
+    }
+
+    /**
+     * @return the identifier recorded as the origin of changes made through this provider.
+     */
+    default String getChangeLogOrigin() {
+        return null;
+    }
+
+    /**
+     * Read the change log. Uses a storage context of its own.
+     *
+     * @param lastId
+     * @param maxResults
+     * @return changes with ids greater than lastId, in id order.
+     */
+    default List<ChangeLogEntity> findChangesAfter(long lastId, int maxResults) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param millis
+     * @return the highest change id created before the given time, or 0 if there is none.
+     */
+    default long findLastChangeIdBefore(long millis) {
+        return 0;
+    }
+
+    /**
+     * Delete changes created before the given time. Uses a storage context of its own.
+     *
+     * @param millis
+     * @return the number of changes deleted.
+     */
+    default int deleteChangesBefore(long millis) {
+        return 0;
+    }
+}
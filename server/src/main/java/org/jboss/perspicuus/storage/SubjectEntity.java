@@ -13,27 +13,29 @@
 package org.jboss.perspicuus.storage;
 
 import javax.persistence.*;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Storage layer representation of a Subject, which is an ordered collection of versions of a Schema.
+ * The versions themselves are held separately, as SubjectVersionEntity, so loading a Subject doesn't
+ * drag in its entire history.
  *
  * @since 2017-02
  * @author Jonathan Halliday (jonathan.halliday@redhat.com)
  */
 @Entity
 @NamedQueries({
-        @NamedQuery(name = "SubjectEntity.allNames", query = "SELECT e.name FROM SubjectEntity e")
+        @NamedQuery(name = "SubjectEntity.byNames", query = "SELECT e FROM SubjectEntity e WHERE e.name IN :names"),
+        @NamedQuery(name = "SubjectEntity.afterName", query = "SELECT e FROM SubjectEntity e WHERE e.name > :lastName ORDER BY e.name")
 })
 public class SubjectEntity {
 
     private String name;
 
-    private List<Integer> schemaIds = new ArrayList<>();
-
     private String compatibility;
 
+    // the most recent non-deleted version, or 0 if there isn't one.
+    private int latestVersion;
+
     @Id
     public String getName() {
         return name;
@@ -43,16 +45,6 @@ public class SubjectEntity {
         this.name = name;
     }
 
-    @ElementCollection(fetch = FetchType.EAGER)
-    @OrderColumn(name = "position")
-    public List<Integer> getSchemaIds() {
-        return schemaIds;
-    }
-
-    public void setSchemaIds(List<Integer> schemaIds) {
-        this.schemaIds = schemaIds;
-    }
-
     public String getCompatibility() {
         return compatibility;
     }
@@ -61,18 +53,11 @@ public class SubjectEntity {
         this.compatibility = compatibility;
     }
 
-    @Transient
-    public boolean isDeleted() {
-        if(getSchemaIds().isEmpty()) {
-            return false;
-        }
-
-        for(Integer i : getSchemaIds()) {
-            if(i != 0) {
-                return false;
-            }
-        }
+    public int getLatestVersion() {
+        return latestVersion;
+    }
 
-        return true;
+    public void setLatestVersion(int latestVersion) {
+        this.latestVersion = latestVersion;
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Storage layer representation of one version of a Subject, mapping it to the Schema registered at that version.
+ *
+ * Versions number from one. Deletion is logical, so version numbers are never reused.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+@Entity
+@IdClass(SubjectVersionEntity.Key.class)
+@Table(indexes = {
+        @Index(name = "SubjectVersionEntity_schemaId_subject", columnList = "schemaId,subject")
+})
+@NamedQueries({
+        @NamedQuery(name = "SubjectVersionEntity.liveVersions",
+                query = "SELECT e.version FROM SubjectVersionEntity e WHERE e.subject=:subject AND e.deleted=false ORDER BY e.version"),
+        @NamedQuery(name = "SubjectVersionEntity.liveSchemaIdsForSubjects",
+                query = "SELECT e.subject, e.schemaId FROM SubjectVersionEntity e WHERE e.subject IN :subjects AND e.deleted=false"),
+        @NamedQuery(name = "SubjectVersionEntity.liveByVersionDesc",
+                query = "SELECT e FROM SubjectVersionEntity e WHERE e.subject=:subject AND e.deleted=false ORDER BY e.version DESC"),
+        @NamedQuery(name = "SubjectVersionEntity.maxVersionForSubjects",
+                query = "SELECT e.subject, MAX(e.version) FROM SubjectVersionEntity e WHERE e.subject IN :subjects GROUP BY e.subject"),
+        @NamedQuery(name = "SubjectVersionEntity.allForSubjects",
+                query = "SELECT e FROM SubjectVersionEntity e WHERE e.subject IN :subjects ORDER BY e.subject, e.version"),
+        @NamedQuery(name = "SubjectVersionEntity.afterKey",
+                query = "SELECT e FROM SubjectVersionEntity e WHERE e.subject > :lastSubject OR (e.subject = :lastSubject AND e.version > :lastVersion) ORDER BY e.subject, e.version"),
+        @NamedQuery(name = "SubjectVersionEntity.deleteAll",
+                query = "UPDATE SubjectVersionEntity e SET e.deleted=true WHERE e.subject=:subject AND e.deleted=false")
+})
+public class SubjectVersionEntity {
+
+    private String subject;
+
+    private int version;
+
+    private int schemaId;
+
+    private boolean deleted;
+
+    public SubjectVersionEntity() {}
+
+    public SubjectVersionEntity(String subject, int version, int schemaId) {
+        this.subject = subject;
+        this.version = version;
+        this.schemaId = schemaId;
+    }
+
+    @Id
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    @Id
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public int getSchemaId() {
+        return schemaId;
+    }
+
+    public void setSchemaId(int schemaId) {
+        this.schemaId = schemaId;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
+
+    /**
+     * Composite primary key, which also serves as the index for (subject, version) lookups.
+     */
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String subject;
+        private int version;
+
+        public Key() {}
+
+        public Key(String subject, int version) {
+            this.subject = subject;
+            this.version = version;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public void setSubject(String subject) {
+            this.subject = subject;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public void setVersion(int version) {
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return version == that.version && subject.equals(that.subject);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subject, version);
+        }
+    }
+}
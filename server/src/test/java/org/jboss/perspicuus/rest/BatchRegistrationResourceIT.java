@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Response;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the batch registration REST API.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class BatchRegistrationResourceIT extends AbstractResourceIT {
+
+    private Map<String,Object> item(String subject, Map<String,Object> schema) {
+        Map<String,Object> item = new HashMap<>(schema);
+        item.put("subject", subject);
+        return item;
+    }
+
+    private List<Map<String,Object>> registerSchemas(List<Map<String,Object>> items) throws Exception {
+        String result = client.target(URL_BASE+"/batch/subjects/versions").request(CONTENT_TYPE)
+                .post(Entity.json(objectMapper.writeValueAsString(items)), String.class);
+        return objectMapper.readValue(result, new TypeReference<List<Map<String,Object>>>() {});
+    }
+
+    private List<Integer> getVersions(String subject) throws Exception {
+        String result = client.target(URL_BASE + "/subjects/"+subject+"/versions").request(CONTENT_TYPE).get(String.class);
+        return objectMapper.readValue(result, new TypeReference<List<Integer>>() {});
+    }
+
+    @Test
+    public void testBatchRegistration() throws Exception {
+
+        Map<String,Object> schemaA = getAvroSchema(new String[] {"batchfieldA"});
+        Map<String,Object> schemaB = getAvroSchema(new String[] {"batchfieldA", "batchfieldB"});
+
+        List<Map<String,Object>> items = new ArrayList<>();
+        items.add(item("batchsubjectA", schemaA));
+        items.add(item("batchsubjectB", schemaA));
+        items.add(item("batchsubjectA", schemaB));
+        items.add(item("batchsubjectA", schemaA)); // already present from earlier in the batch
+
+        List<Map<String,Object>> results = registerSchemas(items);
+
+        assertEquals(4, results.size());
+        for(int i = 0; i < results.size(); i++) {
+            assertEquals(items.get(i).get("subject"), results.get(i).get("subject"));
+            assertNotNull(results.get(i).get("id"));
+        }
+        assertEquals(results.get(0).get("id"), results.get(1).get("id"));
+        assertEquals(results.get(0).get("id"), results.get(3).get("id"));
+        assertNotEquals(results.get(0).get("id"), results.get(2).get("id"));
+
+        assertEquals(Arrays.asList(1, 2), getVersions("batchsubjectA"));
+        assertEquals(Collections.singletonList(1), getVersions("batchsubjectB"));
+    }
+
+    @Test
+    public void testBatchRegistrationErrors() throws Exception {
+
+        String subject = "batcherrorsubject";
+        registerSchema(subject, getAvroSchema(new String[] {"batcherrorfield"}));
+        setCompatibilityLevel(subject, "BACKWARD");
+
+        // reading old data, which lacks the new field, would fail
+        Map<String,Object> incompatibleSchema = getAvroSchema(new String[] {"batcherrorfield", "batchnewfield"});
+
+        Map<String,Object> invalidSchema = new HashMap<>();
+        invalidSchema.put("schema", "not a schema");
+
+        Map<String,Object> unknownTypeSchema = getAvroSchema(new String[] {"batcherrorfield"});
+        unknownTypeSchema.put("schemaType", "NOSUCHTYPE");
+
+        List<Map<String,Object>> items = new ArrayList<>();
+        items.add(item(subject, incompatibleSchema));
+        items.add(item("batchvalidsubject", getAvroSchema(new String[] {"batchvalidfield"})));
+        items.add(item("batchinvalidsubject", invalidSchema));
+        items.add(item("batchunknowntypesubject", unknownTypeSchema));
+
+        List<Map<String,Object>> results = registerSchemas(items);
+
+        assertEquals(4, results.size());
+        assertEquals(400, results.get(0).get("error_code"));
+        assertNull(results.get(0).get("id"));
+        assertNotNull(results.get(1).get("id"));
+        assertEquals(422, results.get(2).get("error_code"));
+        assertEquals(422, results.get(3).get("error_code"));
+
+        assertEquals(Collections.singletonList(1), getVersions(subject));
+    }
+
+    @Test
+    public void testInvalidBatches() throws Exception {
+
+        Response response = client.target(URL_BASE+"/batch/subjects/versions").request(CONTENT_TYPE).post(Entity.json("null"));
+        assertEquals(400, response.getStatus());
+        response.close();
+
+        List<Map<String,Object>> items = new ArrayList<>();
+        for(int i = 0; i <= 1000; i++) {
+            items.add(item("batchoversizesubject", getAvroSchema()));
+        }
+        response = client.target(URL_BASE+"/batch/subjects/versions").request(CONTENT_TYPE)
+                .post(Entity.json(objectMapper.writeValueAsString(items)));
+        assertEquals(400, response.getStatus());
+        response.close();
+
+        items = new ArrayList<>();
+        items.add(null);
+        items.add(item("batchnullitemsubject", getAvroSchema()));
+        List<Map<String,Object>> results = registerSchemas(items);
+
+        assertEquals(2, results.size());
+        assertEquals(422, results.get(0).get("error_code"));
+        assertNotNull(results.get(1).get("id"));
+    }
+}
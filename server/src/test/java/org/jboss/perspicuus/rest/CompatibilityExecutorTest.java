@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the bounded executor behind the compatibility and registration endpoints.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class CompatibilityExecutorTest {
+
+    private final CompatibilityExecutor compatibilityExecutor = new CompatibilityExecutor();
+
+    @After
+    public void tearDown() {
+        compatibilityExecutor.close();
+    }
+
+    // an AsyncResponse completing the returned future with whatever it's resumed with.
+    private AsyncResponse asyncResponse(CompletableFuture<Object> resumed) {
+        return (AsyncResponse)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {AsyncResponse.class},
+                (proxy, method, args) -> {
+                    if(method.getName().equals("resume")) {
+                        return resumed.complete(args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void testSaturationIsRejected() throws Exception {
+        compatibilityExecutor.threads = 1;
+        compatibilityExecutor.queueDepth = 1;
+        compatibilityExecutor.init();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = new CompletableFuture<>();
+        compatibilityExecutor.execute(asyncResponse(running), () -> {
+            started.countDown();
+            release.await();
+            return "running";
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Object> queued = new CompletableFuture<>();
+        compatibilityExecutor.execute(asyncResponse(queued), () -> "queued");
+        CompatibilityExecutor.ExecutorStatistics statistics = compatibilityExecutor.getStatistics();
+        assertEquals(1, statistics.activeCount);
+        assertEquals(1, statistics.queued);
+        assertEquals(1, statistics.queueCapacity);
+
+        // refused at once, on the calling thread
+        CompletableFuture<Object> rejected = new CompletableFuture<>();
+        compatibilityExecutor.execute(asyncResponse(rejected), () -> "rejected");
+        assertTrue(rejected.isDone());
+        ServiceUnavailableException exception = (ServiceUnavailableException)rejected.get();
+        assertEquals(String.valueOf(CompatibilityExecutor.RETRY_AFTER_SECONDS),
+                exception.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER));
+        assertEquals(1, compatibilityExecutor.getStatistics().rejectedCount);
+
+        release.countDown();
+        assertEquals("running", running.get(10, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExceptionsAreResumed() throws Exception {
+        compatibilityExecutor.init();
+
+        CompletableFuture<Object> resumed = new CompletableFuture<>();
+        BadRequestException badRequestException = new BadRequestException("incompatible schema");
+        compatibilityExecutor.execute(asyncResponse(resumed), () -> {
+            throw badRequestException;
+        });
+        assertSame(badRequestException, resumed.get(10, TimeUnit.SECONDS));
+    }
+}
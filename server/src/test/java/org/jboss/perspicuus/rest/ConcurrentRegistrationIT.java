@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Stress test cases for registration by many concurrent clients.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class ConcurrentRegistrationIT extends AbstractResourceIT {
+
+    private static final int THREADS = 64;
+
+    // the shared client isn't safe for concurrent use, so have one with a connection pool.
+    private static Client pooledClient;
+
+    @BeforeClass
+    public static void setUp() {
+        pooledClient = new ResteasyClientBuilder()
+                .connectionPoolSize(THREADS)
+                .maxPooledPerRoute(THREADS)
+                .build();
+        pooledClient.register(new BasicAuthFilter());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pooledClient.close();
+    }
+
+    private int concurrentRegisterSchema(String subject, Map<String,Object> request) throws Exception {
+        String schemaString = objectMapper.writeValueAsString(request);
+        String result = pooledClient.target(URL_BASE+"/subjects/"+subject+"/versions").request(CONTENT_TYPE).post(Entity.json(schemaString), String.class);
+        Map<String,Object> actualResultMap = objectMapper.readValue(result, new TypeReference<Map<String,Object>>() {});
+        return (Integer)actualResultMap.get("id");
+    }
+
+    private List<Integer> runConcurrently(String description, List<Callable<Integer>> tasks) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<Integer>> futures = executorService.invokeAll(tasks);
+            List<Integer> results = new ArrayList<>(futures.size());
+            for(Future<Integer> future : futures) {
+                results.add(future.get()); // rethrows any failure
+            }
+            long elapsedNanos = System.nanoTime()-start;
+            System.out.printf("%s: %d registrations by %d threads in %.1f ms, %.0f/s%n", description,
+                    tasks.size(), THREADS, elapsedNanos/1e6, tasks.size()/(elapsedNanos/1e9));
+            return results;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private List<Integer> getVersions(String subject) throws Exception {
+        String result = client.target(URL_BASE + "/subjects/"+subject+"/versions").request(CONTENT_TYPE).get(String.class);
+        return objectMapper.readValue(result, new TypeReference<List<Integer>>() {});
+    }
+
+    @Test
+    public void testIdenticalConcurrentRegistrations() throws Exception {
+
+        String subject = "concurrentidenticalsubject";
+        Map<String,Object> schema = getAvroSchema(new String[] {"concurrentidenticalfield"});
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            tasks.add(() -> concurrentRegisterSchema(subject, schema));
+        }
+
+        List<Integer> ids = runConcurrently("identical schema, one subject", tasks);
+
+        assertEquals(1, new HashSet<>(ids).size());
+        assertEquals(Collections.singletonList(1), getVersions(subject));
+    }
+
+    @Test
+    public void testIdenticalConcurrentRegistrationsAcrossSubjects() throws Exception {
+
+        Map<String,Object> schema = getAvroSchema(new String[] {"concurrentsharedfield"});
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            String subject = "concurrentsharedsubject"+i;
+            tasks.add(() -> concurrentRegisterSchema(subject, schema));
+        }
+
+        List<Integer> ids = runConcurrently("identical schema, many subjects", tasks);
+
+        assertEquals(1, new HashSet<>(ids).size());
+    }
+
+    @Test
+    public void testDistinctConcurrentRegistrations() throws Exception {
+
+        String subject = "concurrentdistinctsubject";
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            Map<String,Object> schema = getAvroSchema(new String[] {"concurrentdistinctfield"+i});
+            tasks.add(() -> concurrentRegisterSchema(subject, schema));
+        }
+
+        List<Integer> ids = runConcurrently("distinct schemas, one subject", tasks);
+
+        assertEquals(THREADS, new HashSet<>(ids).size());
+
+        List<Integer> expectedVersions = new ArrayList<>();
+        for(int i = 1; i <= THREADS; i++) {
+            expectedVersions.add(i);
+        }
+        assertEquals(expectedVersions, getVersions(subject));
+    }
+}
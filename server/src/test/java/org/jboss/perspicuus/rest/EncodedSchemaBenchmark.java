@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jboss.perspicuus.storage.SchemaEntity;
+
+import java.io.OutputStream;
+
+/**
+ * Compares the cost of writing a GET /schemas/ids/{id} response body by serializing a TerseSchema,
+ * as the JSON provider does, with writing the bytes held by EncodedSchemaCache.
+ *
+ * Not run as part of the test suite. Invoke main() with the test classpath, optionally passing the schema size in KB.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class EncodedSchemaBenchmark {
+
+    private static final int ITERATIONS = 20000;
+
+    // discards output, as the container's response stream would take it, so only the encoding is measured.
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+
+    public static void main(String[] args) throws Exception {
+        int schemaKilobytes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+        // protobuf-like text, with the quotes and newlines that need escaping in JSON.
+        StringBuilder stringBuilder = new StringBuilder("syntax = \"proto3\";\n");
+        for(int i = 0; stringBuilder.length() < schemaKilobytes*1024; i++) {
+            stringBuilder.append("message M").append(i).append(" {\n  string field").append(i).append(" = 1; // \"note\"\n}\n");
+        }
+        SchemaEntity schemaEntity = new SchemaEntity();
+        schemaEntity.setId(1);
+        schemaEntity.setContent(stringBuilder.toString());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        EncodedSchemaCache encodedSchemaCache = new EncodedSchemaCache();
+        encodedSchemaCache.init();
+
+        for(int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for(int i = 0; i < ITERATIONS; i++) {
+                SchemaRegistryResource.TerseSchema terseSchema = new SchemaRegistryResource.TerseSchema();
+                terseSchema.schema = schemaEntity.getContent();
+                objectMapper.writeValue(NULL_OUTPUT_STREAM, terseSchema);
+            }
+            long serializedNanos = System.nanoTime()-start;
+
+            start = System.nanoTime();
+            for(int i = 0; i < ITERATIONS; i++) {
+                NULL_OUTPUT_STREAM.write(encodedSchemaCache.getSchemaResponse(schemaEntity).getBytes());
+            }
+            long encodedNanos = System.nanoTime()-start;
+
+            System.out.printf("%dKB schema: serialized %.1fus/response, pre-encoded %.2fus/response%n",
+                    schemaKilobytes, serializedNanos/1000.0/ITERATIONS, encodedNanos/1000.0/ITERATIONS);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jboss.perspicuus.storage.SchemaEntity;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the cache of serialized schema lookup responses.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class EncodedSchemaCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testEncodingMatchesJsonProvider() throws Exception {
+        // characters needing escapes, plus some outside the ASCII range.
+        String schema = "syntax = \"proto3\";\n\tmessage Café { string name = 1; } // ☃ \\ \u0001";
+
+        SchemaRegistryResource.TerseSchema terseSchema = new SchemaRegistryResource.TerseSchema();
+        terseSchema.schema = schema;
+        byte[] expected = objectMapper.writeValueAsBytes(terseSchema);
+
+        assertArrayEquals(expected, EncodedSchemaCache.encode(schema).getBytes());
+        assertEquals(schema, objectMapper.readValue(expected, SchemaRegistryResource.TerseSchema.class).schema);
+    }
+
+    @Test
+    public void testResponsesAreReused() {
+        EncodedSchemaCache encodedSchemaCache = new EncodedSchemaCache();
+        encodedSchemaCache.init();
+
+        String schema = "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"string\"}]}";
+        SchemaEntity schemaEntity = new SchemaEntity(schema);
+        schemaEntity.setId(1);
+
+        EncodedJson first = encodedSchemaCache.getSchemaResponse(schemaEntity);
+        assertSame(first, encodedSchemaCache.getSchemaResponse(schemaEntity));
+        assertEquals(1, encodedSchemaCache.getStats().hitCount());
+        assertTrue(new String(first.getBytes(), StandardCharsets.UTF_8).contains("\\\"record\\\""));
+    }
+}
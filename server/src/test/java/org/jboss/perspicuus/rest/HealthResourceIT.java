@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the health REST API.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class HealthResourceIT extends AbstractResourceIT {
+
+    @Test
+    public void testReadinessWithoutCredentials() throws Exception {
+        // as a probe would, without the authentication the shared client does.
+        Client unauthenticatedClient = ClientBuilder.newClient();
+        try {
+            Response response = unauthenticatedClient.target(URL_BASE+"/health/ready").request().get();
+            assertEquals(200, response.getStatus());
+            Map<String,Object> resultMap = objectMapper.readValue(response.readEntity(String.class), new TypeReference<Map<String,Object>>() {});
+            assertEquals("UP", resultMap.get("status"));
+            assertEquals(true, resultMap.get("warmupComplete"));
+        } finally {
+            unauthenticatedClient.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Load test for the read paths of the REST API, reporting latency percentiles per endpoint.
+ *
+ * Not run as part of the test suite. Start a server, then invoke main() with the test classpath, optionally
+ * passing the server URL, number of client threads and duration in seconds. To compare server builds,
+ * run it against each in turn on the same machine and compare the reported p99 figures.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class ReadLatencyBenchmark {
+
+    private static final String CONTENT_TYPE = "application/vnd.schemaregistry.v1+json";
+    private static final String AUTHORIZATION = "Basic "+Base64.getEncoder()
+            .encodeToString("testuser:testpass".getBytes(StandardCharsets.UTF_8)); // per users.properties file
+
+    private final String urlBase;
+
+    public ReadLatencyBenchmark(String urlBase) {
+        this.urlBase = urlBase;
+    }
+
+    private String request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(urlBase+path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", AUTHORIZATION);
+        connection.setRequestProperty("Accept", CONTENT_TYPE);
+        if(body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            try(OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        try(InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] bytes = new byte[8192];
+            int n;
+            while(inputStream != null && (n = inputStream.read(bytes)) != -1) {
+                buffer.write(bytes, 0, n);
+            }
+            if(status >= 400) {
+                throw new IOException("HTTP "+status+" for "+method+" "+path);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private int setUp(String subject) throws IOException {
+        String schema = "{\"type\":\"record\",\"name\":\"benchmark\",\"fields\":[{\"name\":\"fieldA\",\"type\":\"string\"}]}";
+        String body = "{\"schema\":\""+schema.replace("\"", "\\\"")+"\"}";
+        String result = request("POST", "/subjects/"+subject+"/versions", body);
+        return Integer.parseInt(result.replaceAll("[^0-9]", ""));
+    }
+
+    private static long percentile(long[] sortedNanos, double percentile) {
+        int index = (int)Math.ceil(percentile/100.0*sortedNanos.length)-1;
+        return sortedNanos[Math.max(0, index)];
+    }
+
+    public void run(int threads, int seconds) throws Exception {
+
+        String subject = "benchmarksubject";
+        int schemaId = setUp(subject);
+
+        Map<String,String> paths = new LinkedHashMap<>();
+        paths.put("GET /schemas/ids/{id}", "/schemas/ids/"+schemaId);
+        paths.put("GET /subjects", "/subjects");
+        paths.put("GET /subjects/{subject}/versions", "/subjects/"+subject+"/versions");
+        paths.put("GET /subjects/{subject}/versions/latest", "/subjects/"+subject+"/versions/latest");
+        paths.put("GET /config/{subject}", "/config/"+subject);
+
+        System.out.printf("%-40s %10s %10s %10s %10s %10s%n", "endpoint", "requests", "p50 (ms)", "p90 (ms)", "p99 (ms)", "max (ms)");
+
+        for(Map.Entry<String,String> entry : paths.entrySet()) {
+            String path = entry.getValue();
+
+            // warm up
+            for(int i = 0; i < 1000; i++) {
+                request("GET", path, null);
+            }
+
+            ExecutorService executorService = Executors.newFixedThreadPool(threads);
+            long deadline = System.nanoTime()+TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for(int i = 0; i < threads; i++) {
+                futures.add(executorService.submit(() -> {
+                    List<Long> latencies = new ArrayList<>();
+                    while(System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        request("GET", path, null);
+                        latencies.add(System.nanoTime()-start);
+                    }
+                    return latencies;
+                }));
+            }
+
+            List<Long> allLatencies = new ArrayList<>();
+            for(Future<List<Long>> future : futures) {
+                allLatencies.addAll(future.get());
+            }
+            executorService.shutdown();
+
+            long[] sorted = allLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            System.out.printf("%-40s %10d %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), sorted.length,
+                    percentile(sorted, 50)/1e6, percentile(sorted, 90)/1e6, percentile(sorted, 99)/1e6, sorted[sorted.length-1]/1e6);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String urlBase = args.length > 0 ? args[0] : "http://localhost:8080";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        new ReadLatencyBenchmark(urlBase).run(threads, seconds);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.junit.Test;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for content encoding negotiation.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class ResponseCompressionInterceptorTest {
+
+    @Test
+    public void testEncodingSelection() {
+        assertNull(ResponseCompressionInterceptor.selectEncoding(null));
+        assertNull(ResponseCompressionInterceptor.selectEncoding("identity"));
+        assertEquals("gzip", ResponseCompressionInterceptor.selectEncoding("gzip"));
+        assertEquals("gzip", ResponseCompressionInterceptor.selectEncoding("deflate, gzip"));
+        assertEquals("gzip", ResponseCompressionInterceptor.selectEncoding("*"));
+        assertEquals("deflate", ResponseCompressionInterceptor.selectEncoding("deflate"));
+        assertEquals("deflate", ResponseCompressionInterceptor.selectEncoding("gzip;q=0.5, deflate"));
+        assertEquals("deflate", ResponseCompressionInterceptor.selectEncoding("gzip;q=0, *"));
+        assertNull(ResponseCompressionInterceptor.selectEncoding("gzip;q=0"));
+        assertNull(ResponseCompressionInterceptor.selectEncoding("*;q=0"));
+    }
+
+    // runs the interceptor over a writer that outputs the given body, returning what reaches the container.
+    private byte[] write(String acceptEncoding, byte[] body, MultivaluedMap<String,Object> headers) throws IOException {
+        ResponseCompressionInterceptor interceptor = new ResponseCompressionInterceptor();
+        interceptor.minBytes = 100;
+        interceptor.httpHeaders = (HttpHeaders)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {HttpHeaders.class},
+                (proxy, method, args) -> method.getName().equals("getHeaderString") ? acceptEncoding : null);
+
+        ByteArrayOutputStream container = new ByteArrayOutputStream();
+        OutputStream[] outputStream = new OutputStream[] {container};
+        WriterInterceptorContext context = (WriterInterceptorContext)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {WriterInterceptorContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getHeaders":
+                            return headers;
+                        case "getOutputStream":
+                            return outputStream[0];
+                        case "setOutputStream":
+                            outputStream[0] = (OutputStream)args[0];
+                            return null;
+                        case "proceed":
+                            // as the MessageBodyWriter would, in several writes
+                            outputStream[0].write(body, 0, body.length/2);
+                            outputStream[0].flush();
+                            outputStream[0].write(body, body.length/2, body.length-body.length/2);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        interceptor.aroundWriteTo(context);
+        assertSame(container, outputStream[0]);
+        return container.toByteArray();
+    }
+
+    @Test
+    public void testSmallBodiesAreNotCompressed() throws IOException {
+        byte[] body = "{\"schema\":\"small\"}".getBytes();
+        MultivaluedMap<String,Object> headers = new MultivaluedHashMap<>();
+        headers.putSingle(HttpHeaders.CONTENT_LENGTH, body.length);
+
+        assertArrayEquals(body, write("gzip", body, headers));
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(body.length, headers.getFirst(HttpHeaders.CONTENT_LENGTH));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, headers.getFirst(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void testLargeBodiesAreCompressed() throws IOException {
+        byte[] body = new byte[10000];
+        Arrays.fill(body, (byte)'a');
+        MultivaluedMap<String,Object> headers = new MultivaluedHashMap<>();
+        headers.putSingle(HttpHeaders.CONTENT_LENGTH, body.length);
+        headers.putSingle(HttpHeaders.ETAG, new EntityTag("abc"));
+
+        byte[] compressed = write("gzip, deflate", body, headers);
+        assertTrue(compressed.length < body.length/10);
+        assertEquals("gzip", headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_LENGTH));
+        assertEquals(new EntityTag("abc-gzip"), headers.getFirst(HttpHeaders.ETAG));
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try(GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[1024];
+            int count;
+            while((count = inputStream.read(buffer)) != -1) {
+                decompressed.write(buffer, 0, count);
+            }
+        }
+        assertArrayEquals(body, decompressed.toByteArray());
+
+        headers = new MultivaluedHashMap<>();
+        assertArrayEquals(body, write(null, body, headers));
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+    }
+}
@@ -14,10 +14,6 @@ package org.jboss.perspicuus.rest;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.ClientRequestContext;
-import javax.ws.rs.client.ClientRequestFilter;
-import javax.xml.bind.DatatypeConverter;
-import java.io.IOException;
 
 /**
  * Client wrapper to decorate API requests with basic Authentication header.
@@ -34,13 +30,3 @@ public class RestClient {
         client.register(new BasicAuthFilter());
     }
 }
-
-class BasicAuthFilter implements ClientRequestFilter {
-
-    @Override
-    public void filter(ClientRequestContext clientRequestContext) throws IOException {
-        String userpass = "testuser:testpass"; // per users.properties file
-        String header = "Basic "+ DatatypeConverter.printBase64Binary(userpass.getBytes("UTF-8"));
-        clientRequestContext.getHeaders().add("Authorization", header);
-    }
-}
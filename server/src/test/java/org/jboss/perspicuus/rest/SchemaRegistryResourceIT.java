@@ -13,13 +13,23 @@
 package org.jboss.perspicuus.rest;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
 import org.junit.Test;
 
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
 
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -84,6 +94,76 @@ public class SchemaRegistryResourceIT extends AbstractResourceIT {
         assertEquals(schema, actualResultMap);
     }
 
+    @Test
+    public void testMultiGet() throws Exception {
+
+        Map<String,Object> schemaA = getAvroSchema(new String[] {"multigetfieldA"});
+        Map<String,Object> schemaB = getAvroSchema(new String[] {"multigetfieldB"});
+        int idA = registerSchema("multigetsubject", schemaA);
+        int idB = registerSchema("multigetsubject", schemaB);
+
+        String result = client.target(URL_BASE+"/schemas/ids").queryParam("ids", idB+","+idA+","+Integer.MAX_VALUE)
+                .request(CONTENT_TYPE).get(String.class);
+        List<Map<String,Object>> resultList = objectMapper.readValue(result, new TypeReference<List<Map<String,Object>>>() {});
+
+        assertEquals(2, resultList.size());
+        assertEquals(idB, resultList.get(0).get("id"));
+        assertEquals(schemaB.get("schema"), resultList.get(0).get("schema"));
+        assertEquals(idA, resultList.get(1).get("id"));
+        assertEquals(schemaA.get("schema"), resultList.get(1).get("schema"));
+
+        result = client.target(URL_BASE+"/schemas/ids").request(CONTENT_TYPE)
+                .post(Entity.json(objectMapper.writeValueAsString(Arrays.asList(idA, idB))), String.class);
+        resultList = objectMapper.readValue(result, new TypeReference<List<Map<String,Object>>>() {});
+
+        assertEquals(2, resultList.size());
+        assertEquals(idA, resultList.get(0).get("id"));
+        assertEquals(idB, resultList.get(1).get("id"));
+
+        Response response = client.target(URL_BASE+"/schemas/ids").request(CONTENT_TYPE).post(Entity.json("null"));
+        assertEquals(400, response.getStatus());
+        response.close();
+        response = client.target(URL_BASE+"/schemas/ids").request(CONTENT_TYPE).post(Entity.json("["+idA+",null]"));
+        assertEquals(400, response.getStatus());
+        response.close();
+    }
+
+    @Test
+    public void testGivenSchemaType() throws Exception {
+
+        String subject = "testschematypesubject";
+        Map<String,Object> schema = new HashMap<>(getAvroSchema(new String[] {"typedfield"}));
+
+        schema.put("schemaType", "PROTOBUF");
+        Response response = client.target(URL_BASE+"/subjects/"+subject+"/versions").request(CONTENT_TYPE)
+                .post(Entity.json(objectMapper.writeValueAsString(schema)));
+        assertEquals(422, response.getStatus());
+        response.close();
+
+        schema.put("schemaType", "AVRO");
+        int schemaId = registerSchema(subject, schema);
+
+        String result = client.target(URL_BASE+"/schemas/ids/"+schemaId).request(CONTENT_TYPE).get(String.class);
+        Map<String,Object> actualResultMap = objectMapper.readValue(result, new TypeReference<Map<String,Object>>() {});
+        assertEquals(schema.get("schema"), actualResultMap.get("schema"));
+    }
+
+    @Test
+    public void testRabinFingerprintLookup() throws Exception {
+
+        String subject = "rabinsubject";
+        Map<String,Object> schema = getAvroSchema(new String[] {"rabinfield"});
+        long fingerprint = SchemaNormalization.parsingFingerprint64(new Schema.Parser().parse((String)schema.get("schema")));
+
+        int schemaId = registerSchema(subject, schema);
+
+        String result = client.target(URL_BASE+"/schemas/fingerprints/rabin/"+fingerprint).request(CONTENT_TYPE).get(String.class);
+        Map<String,Object> actualResultMap = objectMapper.readValue(result, new TypeReference<Map<String,Object>>() {});
+
+        assertEquals(schemaId, actualResultMap.get("id"));
+        assertEquals(schema.get("schema"), actualResultMap.get("schema"));
+    }
+
     @Test
     public void testSearch() throws Exception {
 
@@ -106,6 +186,31 @@ public class SchemaRegistryResourceIT extends AbstractResourceIT {
         assertEquals(schema.get("schema"), actualResultMap.get("schema"));
     }
 
+    @Test
+    public void testSchemaVersions() throws Exception {
+
+        Map<String,Object> schema = getAvroSchema(new String[] {"sharedfield"});
+        int schemaId = registerSchema("sharedsubjectA", schema);
+        registerSchema("sharedsubjectB", getAvroSchema(new String[] {"unsharedfield"}));
+        registerSchema("sharedsubjectB", schema);
+
+        String result = client.target(URL_BASE + "/schemas/ids/"+schemaId+"/versions").request(CONTENT_TYPE).get(String.class);
+        List<Map<String,Object>> resultList = objectMapper.readValue(result, new TypeReference<List<Map<String,Object>>>() {});
+
+        assertEquals(2, resultList.size());
+        assertEquals("sharedsubjectA", resultList.get(0).get("subject"));
+        assertEquals(1, resultList.get(0).get("version"));
+        assertEquals("sharedsubjectB", resultList.get(1).get("subject"));
+        assertEquals(2, resultList.get(1).get("version"));
+
+        try {
+            client.target(URL_BASE + "/schemas/ids/"+Integer.MAX_VALUE+"/versions").request(CONTENT_TYPE).get(String.class);
+            fail("Should throw NotFound");
+        } catch (NotFoundException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testSubjectVersions() throws Exception {
 
@@ -146,7 +251,7 @@ public class SchemaRegistryResourceIT extends AbstractResourceIT {
         Map<String,Object> actualResultMap = objectMapper.readValue(result, new TypeReference<Map<String,Object>>() {});
 
         Map<String,Object> expectedResult = getAvroSchema();
-        expectedResult.put("id", (int)schemaId);
+        expectedResult.put("id", schemaId);
         expectedResult.put("version", 1);
         expectedResult.put("subject", subject);
 
@@ -165,6 +270,125 @@ public class SchemaRegistryResourceIT extends AbstractResourceIT {
         }
     }
 
+    @Test
+    public void testConditionalRequests() throws Exception {
+
+        String subject = "conditionalsubject";
+        int firstId = registerSchema(subject, getAvroSchema(new String[] {"fieldA"}));
+
+        Response response = client.target(URL_BASE+"/schemas/ids/"+firstId).request(CONTENT_TYPE).get();
+        assertEquals(200, response.getStatus());
+        EntityTag schemaTag = response.getEntityTag();
+        assertNotNull(schemaTag);
+        assertFalse(schemaTag.isWeak());
+        assertTrue(response.getHeaderString("Cache-Control").contains("immutable"));
+        response.close();
+
+        response = client.target(URL_BASE+"/schemas/ids/"+firstId).request(CONTENT_TYPE).header("If-None-Match", schemaTag).get();
+        assertEquals(304, response.getStatus());
+        assertEquals(schemaTag, response.getEntityTag());
+        response.close();
+
+        response = client.target(URL_BASE+"/subjects/"+subject+"/versions/latest").request(CONTENT_TYPE).get();
+        assertEquals(200, response.getStatus());
+        EntityTag latestTag = response.getEntityTag();
+        assertTrue(response.getHeaderString("Cache-Control").contains("must-revalidate"));
+        response.close();
+
+        response = client.target(URL_BASE+"/subjects/"+subject+"/versions/1").request(CONTENT_TYPE).header("If-None-Match", latestTag).get();
+        assertEquals(304, response.getStatus());
+        response.close();
+
+        // a new version changes 'latest', so the client's copy is no longer current
+        registerSchema(subject, getAvroSchema(new String[] {"fieldA", "fieldB"}));
+        response = client.target(URL_BASE+"/subjects/"+subject+"/versions/latest").request(CONTENT_TYPE).header("If-None-Match", latestTag).get();
+        assertEquals(200, response.getStatus());
+        assertNotEquals(latestTag, response.getEntityTag());
+        response.close();
+
+        // nor is a deleted version's
+        client.target(URL_BASE+"/subjects/"+subject+"/versions/1").request(CONTENT_TYPE).delete(String.class);
+        response = client.target(URL_BASE+"/subjects/"+subject+"/versions/1").request(CONTENT_TYPE).header("If-None-Match", latestTag).get();
+        assertEquals(404, response.getStatus());
+        response.close();
+    }
+
+    @Test
+    public void testCompressionAndCbor() throws Exception {
+
+        String[] fieldNames = new String[100];
+        for(int i = 0; i < fieldNames.length; i++) {
+            fieldNames[i] = "compressedfield"+i;
+        }
+        Map<String,Object> schema = getAvroSchema(fieldNames);
+        int schemaId = registerSchema("compressionsubject", schema);
+
+        Response response = client.target(URL_BASE+"/schemas/ids/"+schemaId).request(CONTENT_TYPE)
+                .header("Accept-Encoding", "gzip").get();
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeaderString("Content-Encoding"));
+        EntityTag gzipTag = response.getEntityTag();
+        assertTrue(gzipTag.getValue().endsWith("-gzip"));
+        try(InputStream inputStream = new GZIPInputStream(response.readEntity(InputStream.class))) {
+            assertEquals(schema, objectMapper.readValue(inputStream, new TypeReference<Map<String,Object>>() {}));
+        }
+        response.close();
+
+        response = client.target(URL_BASE+"/schemas/ids/"+schemaId).request(CONTENT_TYPE)
+                .header("Accept-Encoding", "gzip").header("If-None-Match", gzipTag).get();
+        assertEquals(304, response.getStatus());
+        assertEquals(gzipTag, response.getEntityTag());
+        response.close();
+
+        ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+        response = client.target(URL_BASE+"/schemas/ids/"+schemaId).request("application/vnd.schemaregistry.v1+cbor").get();
+        assertEquals(200, response.getStatus());
+        assertEquals("application/vnd.schemaregistry.v1+cbor", response.getMediaType().toString());
+        assertNotEquals(gzipTag.getValue(), response.getEntityTag().getValue()+"-gzip");
+        Map<String,Object> resultMap = cborMapper.readValue(response.readEntity(byte[].class), new TypeReference<Map<String,Object>>() {});
+        assertEquals(schema, resultMap);
+
+        response = client.target(URL_BASE+"/schemas/ids").queryParam("ids", schemaId).request("application/vnd.schemaregistry.v1+cbor").get();
+        assertEquals(200, response.getStatus());
+        List<Map<String,Object>> resultList = cborMapper.readValue(response.readEntity(byte[].class), new TypeReference<List<Map<String,Object>>>() {});
+        assertEquals(schemaId, resultList.get(0).get("id"));
+
+        // JSON remains the default, for clients expressing no preference
+        response = client.target(URL_BASE+"/schemas/ids/"+schemaId).request("*/*").get();
+        assertEquals(CONTENT_TYPE, response.getMediaType().toString());
+        assertNull(response.getHeaderString("Content-Encoding"));
+        response.close();
+    }
+
+    @Test
+    public void testSubjectListingPages() throws Exception {
+
+        for(String subject : new String[] {"pagedsubjectC", "pagedsubjectA", "pagedsubjectB"}) {
+            registerSchema(subject, getAvroSchema());
+        }
+
+        Response response = client.target(URL_BASE+"/subjects").queryParam("prefix", "pagedsubject").queryParam("limit", 2)
+                .request(CONTENT_TYPE).get();
+        List<String> subjects = objectMapper.readValue(response.readEntity(String.class), new TypeReference<List<String>>() {});
+        assertEquals(Arrays.asList("pagedsubjectA", "pagedsubjectB"), subjects);
+        assertNotNull(response.getLink("next"));
+
+        response = client.target(response.getLink("next")).request(CONTENT_TYPE).get();
+        subjects = objectMapper.readValue(response.readEntity(String.class), new TypeReference<List<String>>() {});
+        assertEquals(Arrays.asList("pagedsubjectC"), subjects);
+        assertNull(response.getLink("next"));
+
+        String result = client.target(URL_BASE+"/subjects").queryParam("prefix", "pagedsubject").queryParam("after", "pagedsubjectA")
+                .request(CONTENT_TYPE).get(String.class);
+        subjects = objectMapper.readValue(result, new TypeReference<List<String>>() {});
+        assertEquals(Arrays.asList("pagedsubjectB", "pagedsubjectC"), subjects);
+
+        response = client.target(URL_BASE+"/subjects").queryParam("limit", 0).request(CONTENT_TYPE).get();
+        assertEquals(400, response.getStatus());
+        response.close();
+    }
+
     @Test
     public void testDeletions() throws Exception {
 
@@ -190,11 +414,29 @@ public class SchemaRegistryResourceIT extends AbstractResourceIT {
         assertEquals(1, (int)versionList.get(0));
         assertEquals(3, (int)versionList.get(1));
 
+        result = client.target(URL_BASE+"/subjects/"+subject+"/versions/latest").request(CONTENT_TYPE).delete(String.class);
+        assertEquals("3", result);
+
+        result = client.target(URL_BASE + "/subjects/"+subject+"/versions/latest").request(CONTENT_TYPE).get(String.class);
+        Map<String,Object> resultMap = objectMapper.readValue(result, new TypeReference<Map<String,Object>>() {});
+        assertEquals(1, resultMap.get("version"));
+        assertEquals(firstId, resultMap.get("id"));
+
+        // version numbers aren't reused after deletion
+        int reregisteredId = registerSchema(subject, getAvroSchema(new String[] {"fieldA", "fieldB", "fieldC"}));
+        assertEquals(thirdId, reregisteredId);
+
+        result = client.target(URL_BASE + "/subjects/"+subject+"/versions").request(CONTENT_TYPE).get(String.class);
+        versionList = objectMapper.readValue(result, new TypeReference<List<Integer>>() {});
+        assertEquals(2, versionList.size());
+        assertEquals(1, (int)versionList.get(0));
+        assertEquals(4, (int)versionList.get(1));
+
         result = client.target(URL_BASE+"/subjects/"+subject).request(CONTENT_TYPE).delete(String.class);
         versionList = objectMapper.readValue(result, new TypeReference<List<Integer>>() {});
         assertEquals(2, versionList.size());
         assertEquals(1, (int)versionList.get(0));
-        assertEquals(3, (int)versionList.get(1));
+        assertEquals(4, (int)versionList.get(1));
 
         try {
             client.target(URL_BASE + "/subjects/"+subject+"/versions").request(CONTENT_TYPE).get(String.class);
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.h2.tools.Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of a server whose database is slow, reporting how compatibility checks and lookups fare
+ * whilst registrations are held up waiting on it.
+ *
+ * The database is an H2 tcp server run by the benchmark itself, behind a proxy that delays every request sent to it,
+ * so each statement and commit costs a round trip of at least the given latency.
+ *
+ * Not run as part of the test suite. Invoke main() with the test classpath, optionally passing the server URL,
+ * the database latency in ms, the number of registering, checking and reading clients and the duration in seconds.
+ * Once it's listening, start the server with the connection-url it prints, e.g. by passing it as
+ * -Dswarm.datasources.data-sources.DataSourcePerspicuus.connection-url=... , and the load starts as soon as
+ * the server is ready. To compare server builds, run it against each in turn, restarting both each time.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class SlowDatabaseBenchmark {
+
+    private static final String CONTENT_TYPE = "application/vnd.schemaregistry.v1+json";
+    private static final String AUTHORIZATION = "Basic "+Base64.getEncoder()
+            .encodeToString("testuser:testpass".getBytes(StandardCharsets.UTF_8)); // per users.properties file
+
+    private static final int DATABASE_PORT = 9092;
+    private static final int PROXY_PORT = 9093;
+
+    private final String urlBase;
+
+    public SlowDatabaseBenchmark(String urlBase) {
+        this.urlBase = urlBase;
+    }
+
+    // forward the client's requests to the database after the given delay, and its responses back straight away.
+    private static void startProxy(long latencyMillis) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(PROXY_PORT);
+        Thread acceptor = new Thread(() -> {
+            while(true) {
+                try {
+                    Socket client = serverSocket.accept();
+                    Socket database = new Socket("localhost", DATABASE_PORT);
+                    client.setTcpNoDelay(true);
+                    database.setTcpNoDelay(true);
+                    pump(client.getInputStream(), database.getOutputStream(), latencyMillis);
+                    pump(database.getInputStream(), client.getOutputStream(), 0);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "proxy-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void pump(InputStream inputStream, OutputStream outputStream, long delayMillis) {
+        Thread thread = new Thread(() -> {
+            byte[] bytes = new byte[8192];
+            int n;
+            try {
+                while((n = inputStream.read(bytes)) != -1) {
+                    if(delayMillis > 0) {
+                        Thread.sleep(delayMillis);
+                    }
+                    outputStream.write(bytes, 0, n);
+                    outputStream.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // the connection was closed.
+            } finally {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    // already closed.
+                }
+            }
+        }, "proxy-pump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // the response status, rather than an exception for errors, as refusals are among the things being measured.
+    private int request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(urlBase+path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Authorization", AUTHORIZATION);
+        connection.setRequestProperty("Accept", CONTENT_TYPE);
+        if(body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+            try(OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        try(InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] bytes = new byte[8192];
+            int n;
+            while(inputStream != null && (n = inputStream.read(bytes)) != -1) {
+                buffer.write(bytes, 0, n);
+            }
+        }
+        return status;
+    }
+
+    private static String schemaBody(String... fieldNames) {
+        StringBuilder fields = new StringBuilder();
+        for(String fieldName : fieldNames) {
+            if(fields.length() > 0) {
+                fields.append(",");
+            }
+            fields.append("{\\\"name\\\":\\\"").append(fieldName).append("\\\",\\\"type\\\":\\\"string\\\",\\\"default\\\":\\\"\\\"}");
+        }
+        return "{\"schema\":\"{\\\"type\\\":\\\"record\\\",\\\"name\\\":\\\"benchmark\\\",\\\"fields\\\":["+fields+"]}\"}";
+    }
+
+    private void awaitReady() throws InterruptedException {
+        while(true) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection)new URL(urlBase+"/health/ready").openConnection();
+                int status = connection.getResponseCode();
+                connection.disconnect();
+                if(status == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet.
+            }
+            Thread.sleep(1000);
+        }
+    }
+
+    private void expectSuccess(int status, String what) {
+        if(status >= 400) {
+            throw new IllegalStateException("HTTP "+status+" for "+what);
+        }
+    }
+
+    private static long percentile(long[] sortedNanos, double percentile) {
+        int index = (int)Math.ceil(percentile/100.0*sortedNanos.length)-1;
+        return sortedNanos[Math.max(0, index)];
+    }
+
+    // the outcomes of one kind of request, over the measured period.
+    private static class Outcomes {
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger refused = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+    }
+
+    private interface Task {
+        int call(int iteration) throws IOException;
+    }
+
+    private List<Future<?>> start(ExecutorService executorService, int clients, Task task, Outcomes outcomes,
+                                  long measureFrom, long deadline) {
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < clients; i++) {
+            int client = i;
+            futures.add(executorService.submit(() -> {
+                int iteration = 0;
+                while(System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    int status = task.call(client*1000000+iteration++);
+                    long latency = System.nanoTime()-start;
+                    if(start < measureFrom) {
+                        continue;
+                    }
+                    if(status == 503) {
+                        outcomes.refused.incrementAndGet();
+                    } else if(status >= 400) {
+                        outcomes.failed.incrementAndGet();
+                    } else {
+                        outcomes.latencies.add(latency);
+                    }
+                }
+                return null;
+            }));
+        }
+        return futures;
+    }
+
+    public void run(int registerers, int checkers, int readers, int seconds) throws Exception {
+
+        expectSuccess(request("POST", "/subjects/slowdbread/versions", schemaBody("fieldA")), "set up");
+        expectSuccess(request("POST", "/subjects/slowdbcheck/versions", schemaBody("fieldA")), "set up");
+        expectSuccess(request("PUT", "/config/slowdbcheck", "{\"compatibility\":\"BACKWARD\"}"), "set up");
+        String compatibleSchema = schemaBody("fieldA", "fieldB");
+
+        Map<String,Outcomes> outcomes = new LinkedHashMap<>();
+        outcomes.put("POST /subjects/{subject}/versions", new Outcomes());
+        outcomes.put("POST /compatibility/subjects/{subject}/versions/latest", new Outcomes());
+        outcomes.put("GET /subjects/{subject}/versions/latest", new Outcomes());
+        Iterator<Outcomes> iterator = outcomes.values().iterator();
+
+        // discard the first few seconds, whilst the server warms up and the queues fill.
+        long measureFrom = System.nanoTime()+TimeUnit.SECONDS.toNanos(5);
+        long deadline = measureFrom+TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(registerers+checkers+readers);
+        List<Future<?>> futures = new ArrayList<>();
+        // distinct subjects, so the registrations wait on the database rather than on each other's subject locks.
+        futures.addAll(start(executorService, registerers,
+                iteration -> request("POST", "/subjects/slowdbwrite"+(iteration/1000000)+"/versions", schemaBody("field"+iteration)),
+                iterator.next(), measureFrom, deadline));
+        futures.addAll(start(executorService, checkers,
+                iteration -> request("POST", "/compatibility/subjects/slowdbcheck/versions/latest", compatibleSchema),
+                iterator.next(), measureFrom, deadline));
+        futures.addAll(start(executorService, readers,
+                iteration -> request("GET", "/subjects/slowdbread/versions/latest", null),
+                iterator.next(), measureFrom, deadline));
+        for(Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        System.out.printf("%-56s %10s %10s %10s %10s %10s%n", "endpoint", "ok/s", "503s", "errors", "p50 (ms)", "p99 (ms)");
+        for(Map.Entry<String,Outcomes> entry : outcomes.entrySet()) {
+            Outcomes outcome = entry.getValue();
+            long[] sorted = outcome.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            System.out.printf("%-56s %10.1f %10d %10d %10.2f %10.2f%n", entry.getKey(), sorted.length/(double)seconds,
+                    outcome.refused.get(), outcome.failed.get(),
+                    sorted.length == 0 ? Double.NaN : percentile(sorted, 50)/1e6,
+                    sorted.length == 0 ? Double.NaN : percentile(sorted, 99)/1e6);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String urlBase = args.length > 0 ? args[0] : "http://localhost:8080";
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int registerers = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        int checkers = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int readers = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+        int seconds = args.length > 5 ? Integer.parseInt(args[5]) : 30;
+
+        Server database = Server.createTcpServer("-tcpPort", Integer.toString(DATABASE_PORT)).start();
+        try {
+            startProxy(latencyMillis);
+            System.out.println("database listening, with "+latencyMillis+"ms latency, at connection-url "
+                    +"jdbc:h2:tcp://localhost:"+PROXY_PORT+"/mem:slowdb;DB_CLOSE_DELAY=-1");
+
+            SlowDatabaseBenchmark benchmark = new SlowDatabaseBenchmark(urlBase);
+            benchmark.awaitReady();
+            benchmark.run(registerers, checkers, readers, seconds);
+        } finally {
+            database.stop();
+        }
+    }
+}
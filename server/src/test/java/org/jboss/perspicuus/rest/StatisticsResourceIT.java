@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the statistics REST API.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class StatisticsResourceIT extends AbstractResourceIT {
+
+    private Map<String,Object> getStatistics(String cacheName) throws Exception {
+        Map<String,Map<String,Object>> resultMap = client.target(URL_BASE+"/statistics").request(CONTENT_TYPE)
+                .get(new GenericType<Map<String,Map<String,Object>>>() {});
+        assertTrue(resultMap.containsKey(cacheName));
+        return resultMap.get(cacheName);
+    }
+
+    @Test
+    public void testSnapshotStatistics() throws Exception {
+
+        long versionsBefore = ((Number)getStatistics("snapshot").get("versions")).longValue();
+        registerSchema("snapshotstatisticssubject", getAvroSchema(new String[] {"snapshotstatisticsfield"}));
+        long versionsAfter = ((Number)getStatistics("snapshot").get("versions")).longValue();
+
+        assertTrue(versionsAfter > versionsBefore);
+        assertTrue(((Number)getStatistics("snapshot").get("schemas")).longValue() > 0);
+    }
+
+    @Test
+    public void testCanonicalCacheStatistics() throws Exception {
+
+        String subject = "canonicalstatisticssubject";
+        Map<String,Object> schema = getAvroSchema(new String[] {"canonicalstatisticsfield"});
+        registerSchema(subject, schema);
+        String schemaString = objectMapper.writeValueAsString(schema);
+
+        long hitsBefore = ((Number)getStatistics("canonicalCache").get("hitCount")).longValue();
+        client.target(URL_BASE + "/subjects/"+subject).request(CONTENT_TYPE).post(Entity.json(schemaString), String.class);
+        long hitsAfter = ((Number)getStatistics("canonicalCache").get("hitCount")).longValue();
+
+        assertTrue(hitsAfter > hitsBefore);
+    }
+
+    @Test
+    public void testEncodedSchemaCacheStatistics() throws Exception {
+
+        int schemaId = registerSchema("encodedstatisticssubject", getAvroSchema(new String[] {"encodedstatisticsfield"}));
+        client.target(URL_BASE+"/schemas/ids/"+schemaId).request(CONTENT_TYPE).get(String.class);
+
+        long hitsBefore = ((Number)getStatistics("encodedSchemaCache").get("hitCount")).longValue();
+        client.target(URL_BASE+"/schemas/ids/"+schemaId).request(CONTENT_TYPE).get(String.class);
+        long hitsAfter = ((Number)getStatistics("encodedSchemaCache").get("hitCount")).longValue();
+
+        assertTrue(hitsAfter > hitsBefore);
+    }
+
+    @Test
+    public void testStorageCacheStatistics() throws Exception {
+
+        int schemaId = registerSchema("storagestatisticssubject", getAvroSchema(new String[] {"storagestatisticsfield"}));
+        client.target(URL_BASE+"/schemas/ids/"+schemaId).request(CONTENT_TYPE).get(String.class);
+
+        Map<String,Map<String,Object>> resultMap = client.target(URL_BASE+"/statistics").request(CONTENT_TYPE)
+                .get(new GenericType<Map<String,Map<String,Object>>>() {});
+        // only reported by storage providers that have caches of their own, i.e. not the log
+        Map<String,Object> storageCaches = resultMap.get("storageCaches");
+        if(storageCaches != null) {
+            assertTrue(storageCaches.containsKey("org.jboss.perspicuus.storage.SchemaEntity"));
+        }
+    }
+
+    @Test
+    public void testCompatibilityExecutorStatistics() throws Exception {
+
+        long completedBefore = ((Number)getStatistics("compatibilityExecutor").get("completedCount")).longValue();
+        registerSchema("executorstatisticssubject", getAvroSchema(new String[] {"executorstatisticsfield"}));
+        Map<String,Object> statistics = getStatistics("compatibilityExecutor");
+
+        // the pool counts a task complete only once its response is resumed, so allow for the latest not yet being so.
+        assertTrue(((Number)statistics.get("completedCount")).longValue() >= completedBefore);
+        assertTrue(((Number)statistics.get("threads")).intValue() > 0);
+        assertTrue(((Number)statistics.get("queueCapacity")).intValue() > 0);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.rest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the optional pool for modifications that block on the database.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class StorageExecutorTest {
+
+    private final StorageExecutor storageExecutor = new StorageExecutor();
+
+    @After
+    public void tearDown() {
+        storageExecutor.close();
+    }
+
+    // an AsyncResponse completing the returned future with whatever it's resumed with.
+    private AsyncResponse asyncResponse(CompletableFuture<Object> resumed) {
+        return (AsyncResponse)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {AsyncResponse.class},
+                (proxy, method, args) -> {
+                    if(method.getName().equals("resume")) {
+                        return resumed.complete(args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void testDisabledRunsOnCallingThread() throws Exception {
+        storageExecutor.enabled = false;
+        storageExecutor.init();
+        assertFalse(storageExecutor.isStarted());
+        assertNull(storageExecutor.getStatistics());
+
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Object> resumed = new CompletableFuture<>();
+        storageExecutor.execute(asyncResponse(resumed), () -> Thread.currentThread() == caller);
+        assertTrue(resumed.isDone());
+        assertEquals(Boolean.TRUE, resumed.get());
+    }
+
+    @Test
+    public void testEnabledRunsOnPool() throws Exception {
+        storageExecutor.enabled = true;
+        storageExecutor.threads = 2;
+        storageExecutor.init();
+        assertTrue(storageExecutor.isStarted());
+        assertEquals(2, storageExecutor.getStatistics().threads);
+        assertEquals(1000, storageExecutor.getStatistics().queueCapacity);
+
+        CompletableFuture<Object> resumed = new CompletableFuture<>();
+        storageExecutor.execute(asyncResponse(resumed), () -> Thread.currentThread().getName());
+        assertTrue(((String)resumed.get(10, TimeUnit.SECONDS)).startsWith("perspicuus-storage-"));
+    }
+}
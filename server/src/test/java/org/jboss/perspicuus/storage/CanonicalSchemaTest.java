@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for schema normalization and fingerprinting, and the cache of normalized forms.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class CanonicalSchemaTest {
+
+    @Test
+    public void testHash() {
+        // well known SHA-256 test vector
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", CanonicalSchema.hash("abc"));
+
+        CanonicalSchema canonicalSchema = CanonicalSchema.parse(SchemaTypeTest.JSON_SCHEMA_SCHEMA, null);
+        assertEquals(64, canonicalSchema.getHash().length());
+    }
+
+    @Test
+    public void testRabinFingerprint() {
+        CanonicalSchema avroSchema = CanonicalSchema.parse(SchemaTypeTest.AVRO_SCHEMA, null);
+        long expected = SchemaNormalization.parsingFingerprint64(new Schema.Parser().parse(SchemaTypeTest.AVRO_SCHEMA));
+        assertEquals(Long.valueOf(expected), avroSchema.getRabinFingerprint());
+
+        assertNull(CanonicalSchema.parse(SchemaTypeTest.PROTOBUF_SCHEMA, null).getRabinFingerprint());
+        assertNull(CanonicalSchema.parse(SchemaTypeTest.JSON_SCHEMA_SCHEMA, null).getRabinFingerprint());
+    }
+
+    @Test
+    public void testCanonicalCacheIsBoundedByWeight() {
+        StorageManager storageManager = new StorageManager();
+        storageManager.canonicalCacheMegabytes = 1;
+        storageManager.init();
+
+        storageManager.canonicalize(SchemaTypeTest.AVRO_SCHEMA, null);
+        storageManager.canonicalize(SchemaTypeTest.AVRO_SCHEMA, null);
+        assertEquals(1, storageManager.getCanonicalCacheSize());
+        assertEquals(1, storageManager.getCanonicalCacheStats().hitCount());
+
+        // a schema whose text alone outweighs the entire cache isn't kept
+        StringBuilder fields = new StringBuilder();
+        for(int i = 0; i < 20000; i++) {
+            fields.append(i == 0 ? "" : ",").append("{\"name\":\"field").append(i).append("\",\"type\":\"string\"}");
+        }
+        String large = "{\"type\":\"record\",\"name\":\"r\",\"fields\":["+fields+"]}";
+        storageManager.canonicalize(large, SchemaType.AVRO);
+        storageManager.canonicalize(large, SchemaType.AVRO);
+        assertEquals(1, storageManager.getCanonicalCacheStats().hitCount());
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for following the change log, in particular changes that commit out of id order.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class ChangeLogTailerTest {
+
+    private static final String LOCAL = "local";
+    private static final String REMOTE = "remote";
+    private static final long GAP_TIMEOUT = 1000;
+
+    // a change log, without the rest of the storage.
+    private static class ChangeLogProvider implements StorageProvider {
+
+        final TreeMap<Long, ChangeLogEntity> changes = new TreeMap<>();
+
+        void commit(long id, String subject, String origin, long createdMillis) {
+            ChangeLogEntity change = new ChangeLogEntity(subject, origin, createdMillis);
+            change.setId(id);
+            changes.put(id, change);
+        }
+
+        @Override
+        public boolean hasChangeLog() {
+            return true;
+        }
+
+        @Override
+        public String getChangeLogOrigin() {
+            return LOCAL;
+        }
+
+        @Override
+        public List<ChangeLogEntity> findChangesAfter(long lastId, int maxResults) {
+            List<ChangeLogEntity> results = new ArrayList<>(changes.tailMap(lastId, false).values());
+            return results.subList(0, Math.min(maxResults, results.size()));
+        }
+
+        @Override
+        public long findLastChangeIdBefore(long millis) {
+            long result = 0;
+            for(ChangeLogEntity change : changes.values()) {
+                if(change.getCreatedMillis() < millis) {
+                    result = Math.max(result, change.getId());
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<SchemaEntity> findSchemas(Collection<Integer> ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<SubjectEntity> findSubjects(Collection<String> names) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<SubjectVersionEntity> findAllSubjectVersions(Collection<String> subjects) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scanSchemas(Consumer<SchemaEntity> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scanSubjects(Consumer<SubjectEntity> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void scanSubjectVersions(Consumer<SubjectVersionEntity> consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setCompatibility(String subject, String compatibility) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Integer> register(List<StorageManager.Registration> registrations) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteSubjectVersion(String subject, int version) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Integer> deleteAllSchemasFromSubject(String subject) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final ChangeLogProvider provider = new ChangeLogProvider();
+    private final List<Set<String>> refreshes = new ArrayList<>();
+    private final ChangeLogTailer tailer = new ChangeLogTailer(provider, refreshes::add, GAP_TIMEOUT);
+
+    @Test
+    public void testOnlyOtherInstancesChangesAreApplied() {
+        tailer.start(0);
+
+        provider.commit(1, "a", REMOTE, 100);
+        provider.commit(2, "b", LOCAL, 100);
+        provider.commit(3, "c", REMOTE, 100);
+        assertEquals(3, tailer.poll(150));
+
+        assertEquals(Collections.singletonList(new HashSet<>(Arrays.asList("a", "c"))), refreshes);
+        assertEquals(3, tailer.getPosition());
+        assertEquals(50, tailer.getLastAppliedLagMillis());
+        assertEquals(2, tailer.getAppliedCount());
+
+        assertEquals(0, tailer.poll(200));
+        assertEquals(1, refreshes.size());
+        assertEquals(100, tailer.getStalenessMillis(300));
+    }
+
+    @Test
+    public void testLateCommitIsApplied() {
+        tailer.start(0);
+
+        provider.commit(1, "a", REMOTE, 100);
+        provider.commit(3, "c", REMOTE, 100);
+        tailer.poll(100);
+        assertEquals(1, tailer.getPosition());
+
+        provider.commit(2, "b", REMOTE, 100);
+        assertEquals(1, tailer.poll(200));
+        assertEquals(Collections.singleton("b"), refreshes.get(1));
+        assertEquals(3, tailer.getPosition());
+    }
+
+    @Test
+    public void testGapIsAbandonedAfterTimeout() {
+        tailer.start(0);
+
+        provider.commit(1, "a", REMOTE, 100);
+        provider.commit(3, "c", REMOTE, 100);
+        tailer.poll(100);
+        tailer.poll(100+GAP_TIMEOUT-1);
+        assertEquals(1, tailer.getPosition());
+
+        tailer.poll(100+GAP_TIMEOUT);
+        assertEquals(3, tailer.getPosition());
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    public void testStartRereadsRecentChanges() {
+        provider.commit(1, "a", REMOTE, 100);
+        provider.commit(2, "b", REMOTE, 5000);
+
+        tailer.start(5000);
+        assertEquals(1, tailer.getPosition());
+
+        tailer.poll(5000);
+        assertEquals(Collections.singletonList(Collections.singleton("b")), refreshes);
+    }
+}
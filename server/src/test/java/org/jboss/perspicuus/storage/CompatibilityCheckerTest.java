@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for compatibility checking and reuse of parsed schema and verdicts.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class CompatibilityCheckerTest {
+
+    private final ParsedSchemaCache parsedSchemaCache = new ParsedSchemaCache();
+    private final CompatibilityChecker compatibilityChecker = new CompatibilityChecker();
+
+    @Before
+    public void setUp() {
+        StorageManager storageManager = new StorageManager();
+        storageManager.init();
+        parsedSchemaCache.init();
+        compatibilityChecker.storageManager = storageManager;
+        compatibilityChecker.parsedSchemaCache = parsedSchemaCache;
+        compatibilityChecker.init();
+    }
+
+    private SchemaEntity schemaEntity(int id, String schema) {
+        SchemaEntity schemaEntity = new SchemaEntity(schema);
+        schemaEntity.setId(id);
+        return schemaEntity;
+    }
+
+    @Test
+    public void testTransitiveCheckReusesParsedSchemas() {
+
+        List<SchemaEntity> existing = Arrays.asList(
+                schemaEntity(1, "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"int\"}]}"),
+                schemaEntity(2, "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"int\"},{\"name\":\"b\",\"type\":\"int\",\"default\":0}]}"));
+
+        String compatible = "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"int\"},{\"name\":\"c\",\"type\":\"int\",\"default\":0}]}";
+        String incompatible = "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"int\"},{\"name\":\"c\",\"type\":\"int\"}]}";
+
+        assertTrue(compatibilityChecker.isCompatible("BACKWARD_TRANSITIVE", existing, compatible));
+        assertEquals(2, parsedSchemaCache.getStats().missCount());
+
+        // the incompatibility is with the most recent version, which is checked first.
+        assertFalse(compatibilityChecker.isCompatible("BACKWARD_TRANSITIVE", existing, incompatible));
+        assertEquals(2, parsedSchemaCache.getStats().missCount());
+        assertEquals(1, parsedSchemaCache.getStats().hitCount());
+    }
+
+    @Test
+    public void testVerdictsAreMemoized() {
+
+        List<SchemaEntity> existing = Arrays.asList(
+                schemaEntity(4, "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"int\"}]}"));
+        String proposed = "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"long\"}]}";
+
+        assertTrue(compatibilityChecker.isCompatible("BACKWARD", existing, proposed));
+        assertEquals(0, compatibilityChecker.getStats().hitCount());
+        assertEquals(1, compatibilityChecker.getStats().missCount());
+
+        assertTrue(compatibilityChecker.isCompatible("BACKWARD", existing, proposed));
+        assertEquals(1, compatibilityChecker.getStats().hitCount());
+
+        // the verdict at one level says nothing about another
+        assertFalse(compatibilityChecker.isCompatible("FORWARD", existing, proposed));
+        assertEquals(2, compatibilityChecker.getStats().missCount());
+    }
+
+    @Test
+    public void testProtobufCompatibility() {
+
+        String before = "syntax = \"proto3\";\nmessage TestMessage {\n  reserved 3;\n  string fieldA = 1;\n}\n";
+        String after = "syntax = \"proto3\";\nmessage TestMessage {\n  reserved 3;\n  string fieldA = 1;\n  string fieldB = 2;\n}\n";
+
+        SchemaEntity existing = schemaEntity(3, before);
+
+        assertTrue(compatibilityChecker.isCompatible("BACKWARD", Arrays.asList(existing), after));
+        assertTrue(compatibilityChecker.isCompatible("BACKWARD_TRANSITIVE", Arrays.asList(existing), after));
+        assertEquals(1, parsedSchemaCache.getStats().hitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParsedSchemaCacheRejectsOtherParsers() {
+        SchemaEntity schemaEntity = schemaEntity(5, "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"int\"}]}");
+        parsedSchemaCache.getParsedSchema(SchemaType.AVRO.getSchemaParser(), schemaEntity);
+        parsedSchemaCache.getParsedSchema(SchemaType.PROTOBUF.getSchemaParser(), schemaEntity);
+    }
+
+    @Test
+    public void testTypeChangeUnderNone() {
+
+        String avro = "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\"a\",\"type\":\"int\"}]}";
+        String protobuf = "syntax = \"proto3\";\nmessage TestMessage {\n  reserved 3;\n  string fieldA = 1;\n}\n";
+        String jsonSchema = "{\"$schema\":\"http://json-schema.org/draft-04/schema#\",\"type\":\"object\"}";
+
+        List<SchemaEntity> existing = Arrays.asList(schemaEntity(6, avro));
+        assertTrue(compatibilityChecker.isCompatible("NONE", existing, protobuf));
+        assertFalse(compatibilityChecker.isCompatible("BACKWARD", existing, protobuf));
+
+        // the earlier version is of another type, so can't be compatible whatever the proposal
+        existing = Arrays.asList(schemaEntity(6, avro), schemaEntity(7, protobuf));
+        String protobufB = "syntax = \"proto3\";\nmessage TestMessage {\n  reserved 3;\n  string fieldA = 1;\n  string fieldB = 2;\n}\n";
+        assertTrue(compatibilityChecker.isCompatible("BACKWARD", existing, protobufB));
+        assertFalse(compatibilityChecker.isCompatible("BACKWARD_TRANSITIVE", existing, protobufB));
+
+        SchemaEntity jsonSchemaEntity = new SchemaEntity(jsonSchema, SchemaType.JSON_SCHEMA);
+        jsonSchemaEntity.setId(8);
+        existing = Arrays.asList(jsonSchemaEntity);
+        assertTrue(compatibilityChecker.isCompatible("NONE", existing, protobuf));
+        assertFalse(compatibilityChecker.isCompatible("BACKWARD", existing, protobuf));
+    }
+}
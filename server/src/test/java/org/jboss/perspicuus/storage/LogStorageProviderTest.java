@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the append-only log storage provider, in particular recovery of state on restart.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class LogStorageProviderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<LogStorageProvider> openProviders = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for(LogStorageProvider logStorageProvider : openProviders) {
+            logStorageProvider.close();
+        }
+    }
+
+    private StorageManager open() {
+        StorageContext storageContext = new StorageContext();
+        LogStorageProvider logStorageProvider = new LogStorageProvider();
+        logStorageProvider.storageContext = storageContext;
+        logStorageProvider.directory = temporaryFolder.getRoot().getPath();
+        logStorageProvider.sync = false;
+        logStorageProvider.init();
+        openProviders.add(logStorageProvider);
+
+        StorageManager storageManager = new StorageManager();
+        storageManager.providerName = "log";
+        storageManager.logStorageProvider = logStorageProvider;
+        storageManager.storageContext = storageContext;
+        storageManager.init();
+        storageManager.contextInit(false);
+        return storageManager;
+    }
+
+    private void close(StorageManager storageManager) {
+        storageManager.contextCleanup();
+        storageManager.logStorageProvider.close();
+    }
+
+    private StorageManager.Registration registration(String subject, String field) {
+        return new StorageManager.Registration(subject, CanonicalSchema.parse(schema(field), null));
+    }
+
+    private String schema(String field) {
+        return "{\"type\":\"record\",\"name\":\"r\",\"fields\":[{\"name\":\""+field+"\",\"type\":\"string\"}]}";
+    }
+
+    @Test
+    public void testRegistrationAndDeletion() {
+
+        StorageManager storageManager = open();
+
+        List<Integer> ids = storageManager.register(Arrays.asList(
+                registration("subjectA", "a"), registration("subjectA", "b"), registration("subjectB", "a"), registration("subjectA", "a")));
+        int idA = ids.get(0);
+        int idB = ids.get(1);
+        assertEquals(Arrays.asList(idA, idB, idA, idA), ids);
+        assertEquals(Arrays.asList(1, 2), storageManager.listSubjectVersions("subjectA"));
+        assertEquals(2, storageManager.findLatestSubjectVersion("subjectA").getVersion());
+        assertEquals(2, storageManager.findUsesOfSchema(idA).size());
+
+        storageManager.deleteSubjectVersion("subjectA", 2);
+        storageManager.deleteSubjectVersion("subjectA", 2);
+        assertEquals(1, storageManager.findLatestSubjectVersion("subjectA").getVersion());
+        assertTrue(storageManager.findSubjectVersion("subjectA", 2).isDeleted());
+
+        // versions are never reused
+        storageManager.register("subjectA", schema("b"));
+        assertEquals(Arrays.asList(1, 3), storageManager.listSubjectVersions("subjectA"));
+
+        assertEquals(Arrays.asList(1, 3), storageManager.deleteAllSchemasFromSubject("subjectA"));
+        assertNull(storageManager.findLatestSubjectVersion("subjectA"));
+        assertNull(storageManager.findSubjectVersionBySchemaId("subjectA", idA));
+        assertTrue(storageManager.isSubjectDeleted("subjectA"));
+        assertEquals(1, storageManager.findUsesOfSchema(idA).size());
+    }
+
+    @Test
+    public void testStateIsReplayedOnRestart() {
+
+        StorageManager storageManager = open();
+        List<Integer> ids = storageManager.register(Arrays.asList(registration("subjectA", "a"), registration("subjectA", "b")));
+        storageManager.deleteSubjectVersion("subjectA", 1);
+        storageManager.setCompatibility("subjectA", "BACKWARD");
+        SchemaEntity schemaEntity = storageManager.findSchema(ids.get(1));
+        close(storageManager);
+
+        StorageManager reopened = open();
+        assertEquals(Arrays.asList(2), reopened.listSubjectVersions("subjectA"));
+        assertEquals("BACKWARD", reopened.findSubject("subjectA").getCompatibility());
+        assertEquals(2, reopened.findLatestSubjectVersion("subjectA").getVersion());
+        SchemaEntity replayed = reopened.findByHash(schemaEntity.getContent());
+        assertEquals(schemaEntity.getId(), replayed.getId());
+        assertEquals(schemaEntity.getContent(), replayed.getContent());
+        assertEquals(replayed, reopened.findByRabinFingerprint(schemaEntity.getRabinFingerprint()));
+
+        // new schema ids carry on from where they left off
+        int id = reopened.register("subjectB", schema("c"));
+        assertEquals(ids.get(1)+1, id);
+    }
+
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws Exception {
+
+        StorageManager storageManager = open();
+        storageManager.register("subjectA", schema("a"));
+        close(storageManager);
+
+        // as if the server crashed part way through appending a record
+        Path logFile = temporaryFolder.getRoot().toPath().resolve(LogStorageProvider.LOG_FILE_NAME);
+        long validLength = Files.size(logFile);
+        Files.write(logFile, new byte[] {0, 0, 0, 100, 2, 0}, StandardOpenOption.APPEND);
+
+        StorageManager reopened = open();
+        assertEquals(validLength, Files.size(logFile));
+        assertEquals(Arrays.asList(1), reopened.listSubjectVersions("subjectA"));
+
+        reopened.register("subjectA", schema("b"));
+        close(reopened);
+        assertEquals(Arrays.asList(1, 2), open().listSubjectVersions("subjectA"));
+    }
+
+    @Test
+    public void testTornBatchIsDiscardedWhole() throws Exception {
+
+        StorageManager storageManager = open();
+        storageManager.register("subjectA", schema("a"));
+        close(storageManager);
+
+        Path logFile = temporaryFolder.getRoot().toPath().resolve(LogStorageProvider.LOG_FILE_NAME);
+        long validLength = Files.size(logFile);
+
+        storageManager = open();
+        storageManager.register(Arrays.asList(registration("subjectA", "b"), registration("subjectB", "c")));
+        close(storageManager);
+
+        // as if the server crashed with all but the last byte of the batch written
+        try(FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(logFile)-1);
+        }
+
+        StorageManager reopened = open();
+        assertEquals(validLength, Files.size(logFile));
+        assertEquals(Arrays.asList(1), reopened.listSubjectVersions("subjectA"));
+        assertNull(reopened.findByHash(schema("b")));
+        assertNull(reopened.findLatestSubjectVersion("subjectB"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCorruptionBeforeTheTailFailsStartup() throws Exception {
+
+        StorageManager storageManager = open();
+        storageManager.register("subjectA", schema("a"));
+        storageManager.register("subjectA", schema("b"));
+        close(storageManager);
+
+        // damage the first frame's payload, leaving the second intact after it
+        Path logFile = temporaryFolder.getRoot().toPath().resolve(LogStorageProvider.LOG_FILE_NAME);
+        byte[] bytes = Files.readAllBytes(logFile);
+        bytes[10] ^= 1;
+        Files.write(logFile, bytes);
+
+        open();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadOnlyContextRejectsWrites() {
+        StorageManager storageManager = open();
+        storageManager.contextCleanup();
+        storageManager.contextInit(true);
+        storageManager.setCompatibility("subjectA", "FULL");
+    }
+}
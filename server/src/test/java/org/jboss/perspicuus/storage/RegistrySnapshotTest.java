@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the copy-on-write registry snapshot.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class RegistrySnapshotTest {
+
+    static SchemaEntity schemaEntity(int id) {
+        SchemaEntity schemaEntity = new SchemaEntity();
+        schemaEntity.setId(id);
+        schemaEntity.setHash("hash"+id);
+        schemaEntity.setRabinFingerprint((long)id);
+        schemaEntity.setContent("{\"type\":\"fixed\",\"name\":\"f"+id+"\",\"size\":"+id+"}");
+        return schemaEntity;
+    }
+
+    static SubjectEntity subjectEntity(String name, int latestVersion) {
+        SubjectEntity subjectEntity = new SubjectEntity();
+        subjectEntity.setName(name);
+        subjectEntity.setLatestVersion(latestVersion);
+        return subjectEntity;
+    }
+
+    private static SubjectVersionEntity deleted(SubjectVersionEntity subjectVersionEntity) {
+        subjectVersionEntity.setDeleted(true);
+        return subjectVersionEntity;
+    }
+
+    private RegistrySnapshot initialSnapshot() {
+        RegistrySnapshot.Builder builder = new RegistrySnapshot.Builder();
+        builder.addSchema(schemaEntity(1));
+        builder.addSchema(schemaEntity(2));
+        builder.addSubject(subjectEntity("subjectA", 2));
+        builder.addSubject(subjectEntity("subjectB", 1));
+        builder.addSubjectVersion(new SubjectVersionEntity("subjectA", 2, 2));
+        builder.addSubjectVersion(new SubjectVersionEntity("subjectA", 1, 1));
+        builder.addSubjectVersion(new SubjectVersionEntity("subjectB", 1, 1));
+        return builder.build();
+    }
+
+    @Test
+    public void testBuild() {
+        RegistrySnapshot snapshot = initialSnapshot();
+
+        assertEquals(2, snapshot.getSchemaCount());
+        assertEquals(2, snapshot.getSubjectCount());
+        assertEquals(3, snapshot.getVersionCount());
+        assertEquals(Arrays.asList(1, 2), snapshot.listSubjectVersions("subjectA"));
+        assertEquals(2, snapshot.findLatestSubjectVersion("subjectA").getVersion());
+        assertEquals(2, snapshot.getMaxVersion("subjectA"));
+        assertEquals(2, (int)snapshot.findByHash("hash2").getId());
+        assertEquals(1, (int)snapshot.findByRabinFingerprint(1L).getId());
+        assertEquals(1, snapshot.findSubjectVersionBySchemaId("subjectB", 1).getVersion());
+
+        assertEquals(2, snapshot.findUsesOfSchema(1).size());
+        assertEquals("subjectA", snapshot.findUsesOfSchema(1).get(0).getSubject());
+        assertTrue(snapshot.findUsesOfSchema(3).isEmpty());
+    }
+
+    @Test
+    public void testChangesLeaveEarlierSnapshotIntact() {
+        RegistrySnapshot before = initialSnapshot();
+
+        // register schema 3 as subjectA version 3 and delete version 1
+        RegistrySnapshot after = before.withChanges(
+                Collections.singletonList(schemaEntity(3)),
+                Collections.singletonList(subjectEntity("subjectA", 3)),
+                Arrays.asList(deleted(new SubjectVersionEntity("subjectA", 1, 1)),
+                        new SubjectVersionEntity("subjectA", 2, 2), new SubjectVersionEntity("subjectA", 3, 3)));
+
+        assertEquals(3, after.getSchemaCount());
+        assertEquals(3, after.getVersionCount());
+        assertEquals(Arrays.asList(2, 3), after.listSubjectVersions("subjectA"));
+        assertEquals(3, after.findLatestSubjectVersion("subjectA").getVersion());
+        assertTrue(after.findSubjectVersion("subjectA", 1).isDeleted());
+        assertEquals(1, after.findUsesOfSchema(1).size());
+        assertEquals(3, (int)after.findByHash("hash3").getId());
+
+        assertEquals(2, before.getSchemaCount());
+        assertEquals(3, before.getVersionCount());
+        assertEquals(Arrays.asList(1, 2), before.listSubjectVersions("subjectA"));
+        assertEquals(2, before.findLatestSubjectVersion("subjectA").getVersion());
+        assertFalse(before.findSubjectVersion("subjectA", 1).isDeleted());
+        assertEquals(2, before.findUsesOfSchema(1).size());
+        assertNull(before.findSchema(3));
+
+        // unchanged state is shared rather than copied
+        assertSame(before.findSubject("subjectB"), after.findSubject("subjectB"));
+        assertSame(before.findSchema(1), after.findSchema(1));
+    }
+
+    @Test
+    public void testDeletingAllVersions() {
+        RegistrySnapshot snapshot = initialSnapshot().withChanges(
+                Collections.emptyList(),
+                Collections.singletonList(subjectEntity("subjectB", 1)),
+                Collections.singletonList(deleted(new SubjectVersionEntity("subjectB", 1, 1))));
+
+        assertNull(snapshot.findLatestSubjectVersion("subjectB"));
+        assertTrue(snapshot.listSubjectVersions("subjectB").isEmpty());
+        assertEquals(1, snapshot.getMaxVersion("subjectB"));
+        assertEquals(2, snapshot.getVersionCount());
+        assertEquals(1, snapshot.findUsesOfSchema(1).size());
+        assertNotNull(snapshot.findSchema(1));
+    }
+
+    @Test
+    public void testEarliestRabinFingerprintWins() {
+        SchemaEntity duplicate = schemaEntity(5);
+        duplicate.setRabinFingerprint(2L);
+        RegistrySnapshot snapshot = initialSnapshot().withChanges(
+                Collections.singletonList(duplicate), Collections.emptyList(), Collections.emptyList());
+
+        assertEquals(2, (int)snapshot.findByRabinFingerprint(2L).getId());
+        assertEquals(5, (int)snapshot.findSchema(5).getId());
+    }
+
+    @Test
+    public void testSubjectNameRanges() {
+        RegistrySnapshot before = initialSnapshot();
+        RegistrySnapshot snapshot = before.withChanges(Collections.emptyList(),
+                Arrays.asList(subjectEntity("other", 1), subjectEntity("subjectAA", 1), subjectEntity("subjectA", 2)),
+                Arrays.asList(new SubjectVersionEntity("other", 1, 1), new SubjectVersionEntity("subjectAA", 1, 1),
+                        new SubjectVersionEntity("subjectA", 1, 1), new SubjectVersionEntity("subjectA", 2, 2)));
+
+        assertEquals(Arrays.asList("subjectA", "subjectB"), before.listSubjectNames());
+        assertEquals(Arrays.asList("other", "subjectA", "subjectAA", "subjectB"), snapshot.listSubjectNames());
+
+        assertEquals(snapshot.listSubjectNames(), snapshot.listSubjectNames(null, null));
+        assertEquals(Arrays.asList("subjectAA", "subjectB"), snapshot.listSubjectNames(null, "subjectA"));
+        assertEquals(Arrays.asList("subjectAA", "subjectB"), snapshot.listSubjectNames(null, "subjectA0"));
+        assertEquals(Arrays.asList("subjectA", "subjectAA"), snapshot.listSubjectNames("subjectA", null));
+        assertEquals(Arrays.asList("subjectAA"), snapshot.listSubjectNames("subjectA", "subjectA"));
+        assertEquals(Collections.emptyList(), snapshot.listSubjectNames("subjectA", "subjectZ"));
+        assertEquals(Collections.emptyList(), snapshot.listSubjectNames("none", null));
+        assertEquals(Arrays.asList("other"), snapshot.listSubjectNames("o", "a"));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import java.sql.*;
+
+/**
+ * Compares the rate of schema inserts, one transaction each as for individual registrations, when ids are
+ * allocated one at a time from the database versus in blocks of SchemaEntity.ID_BLOCK_SIZE.
+ *
+ * Uses plain JDBC against an in-memory H2 database, following the statements hibernate issues for each id
+ * source: a sequence where the database has them, or otherwise (e.g. MySQL) a single row table,
+ * updated in a transaction of its own. Network round trips to a real database server widen the gap.
+ *
+ * Not run as part of the test suite. Invoke main() with the test classpath, e.g.
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.jboss.perspicuus.storage.SchemaIdAllocationBenchmark
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class SchemaIdAllocationBenchmark {
+
+    private static final int WARMUP_INSERTS = 20000;
+    private static final int INSERTS = 50000;
+
+    private interface IdSource {
+        long next() throws SQLException;
+    }
+
+    private static class SequenceIdSource implements IdSource {
+        private final PreparedStatement statement;
+
+        SequenceIdSource(Connection connection) throws SQLException {
+            statement = connection.prepareStatement("CALL NEXT VALUE FOR bench_sequence");
+        }
+
+        @Override
+        public long next() throws SQLException {
+            try(ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private static class TableIdSource implements IdSource {
+        private final Connection connection;
+        private final PreparedStatement select;
+        private final PreparedStatement update;
+
+        // uses a connection of its own, so the row lock is held only briefly, rather than until the insert commits.
+        TableIdSource(Connection connection) throws SQLException {
+            this.connection = connection;
+            connection.setAutoCommit(false);
+            select = connection.prepareStatement("SELECT next_val FROM bench_sequence_table FOR UPDATE");
+            update = connection.prepareStatement("UPDATE bench_sequence_table SET next_val = ? WHERE next_val = ?");
+        }
+
+        @Override
+        public long next() throws SQLException {
+            long value;
+            try(ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                value = resultSet.getLong(1);
+            }
+            update.setLong(1, value+1);
+            update.setLong(2, value);
+            update.executeUpdate();
+            connection.commit();
+            return value;
+        }
+    }
+
+    // as hibernate's hilo optimizer: each value from the database source numbers a block of ids.
+    private static class BlockIdSource implements IdSource {
+        private final IdSource blockSource;
+        private final int blockSize;
+        private long next;
+        private long limit;
+
+        BlockIdSource(IdSource blockSource, int blockSize) {
+            this.blockSource = blockSource;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        public long next() throws SQLException {
+            if(next == limit) {
+                long block = blockSource.next();
+                next = (block-1)*blockSize+1;
+                limit = next+blockSize;
+            }
+            return next++;
+        }
+    }
+
+    private static void reset(Connection connection) throws SQLException {
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+            statement.execute("CREATE TABLE bench_schema (id BIGINT PRIMARY KEY, hash VARCHAR(64) NOT NULL UNIQUE, content CLOB)");
+            statement.execute("CREATE SEQUENCE bench_sequence START WITH 1 INCREMENT BY 1");
+            statement.execute("CREATE TABLE bench_sequence_table (next_val BIGINT)");
+            statement.execute("INSERT INTO bench_sequence_table VALUES (1)");
+        }
+        connection.commit();
+    }
+
+    private static double insertsPerSecond(Connection connection, IdSource idSource, int inserts) throws SQLException {
+        try(PreparedStatement insert = connection.prepareStatement("INSERT INTO bench_schema (id, hash, content) VALUES (?, ?, ?)")) {
+            long start = System.nanoTime();
+            for(int i = 0; i < inserts; i++) {
+                long id = idSource.next();
+                insert.setLong(1, id);
+                insert.setString(2, Long.toHexString(id));
+                insert.setString(3, "{\"type\":\"fixed\",\"name\":\"f"+id+"\",\"size\":16}");
+                insert.executeUpdate();
+                connection.commit();
+            }
+            return inserts/((System.nanoTime()-start)/1e9);
+        }
+    }
+
+    private static double run(String url, String source, int blockSize, int inserts) throws SQLException {
+        try(Connection connection = DriverManager.getConnection(url, "sa", "sa");
+                Connection idConnection = DriverManager.getConnection(url, "sa", "sa")) {
+            connection.setAutoCommit(false);
+            reset(connection);
+            IdSource idSource = "sequence".equals(source) ? new SequenceIdSource(connection) : new TableIdSource(idConnection);
+            if(blockSize > 1) {
+                idSource = new BlockIdSource(idSource, blockSize);
+            }
+            return insertsPerSecond(connection, idSource, inserts);
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+
+        String url = "jdbc:h2:mem:schemaidbenchmark;DB_CLOSE_DELAY=-1";
+        String[] sources = {"sequence", "table"};
+
+        for(String source : sources) {
+            run(url, source, 1, WARMUP_INSERTS);
+            run(url, source, SchemaEntity.ID_BLOCK_SIZE, WARMUP_INSERTS);
+        }
+
+        System.out.printf("%-10s %16s %16s%n", "id source", "single (ops/s)", "block (ops/s)");
+        for(String source : sources) {
+            double single = run(url, source, 1, INSERTS);
+            double block = run(url, source, SchemaEntity.ID_BLOCK_SIZE, INSERTS);
+            System.out.printf("%-10s %16.0f %16.0f%n", source, single, block);
+        }
+    }
+}
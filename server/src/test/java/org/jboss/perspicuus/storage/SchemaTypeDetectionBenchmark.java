@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.jboss.perspicuus.parsers.SchemaParser;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Micro-benchmark comparing the per-request cost of identifying a schema's type by trying
+ * each parser in turn, versus detecting the type up front and parsing once.
+ *
+ * Not run as part of the test suite. Invoke main() with the test classpath, e.g.
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.jboss.perspicuus.storage.SchemaTypeDetectionBenchmark
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class SchemaTypeDetectionBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 50000;
+
+    private static SchemaType parseInOrder(String schema, Iterable<SchemaType> candidates) {
+        for(SchemaType schemaType : candidates) {
+            SchemaParser<?> schemaParser = schemaType.getSchemaParser();
+            Optional<String> canonicalSchema = schemaParser.parseToCanonicalForm(schema);
+            if(canonicalSchema.isPresent()) {
+                return schemaType;
+            }
+        }
+        throw new IllegalArgumentException();
+    }
+
+    // the original approach: try each parser in declaration order until one succeeds.
+    private static SchemaType trialParse(String schema) {
+        return parseInOrder(schema, Arrays.asList(SchemaType.values()));
+    }
+
+    // as used by SchemaEntity: try the most likely parser first.
+    private static SchemaType detectAndParse(String schema) {
+        return parseInOrder(schema, SchemaType.candidatesFor(schema, null));
+    }
+
+    private static double nanosPerOp(String schema, boolean detect, int iterations) {
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            SchemaType schemaType = detect ? detectAndParse(schema) : trialParse(schema);
+            if(schemaType == null) {
+                throw new IllegalStateException();
+            }
+        }
+        return (System.nanoTime()-start)/(double)iterations;
+    }
+
+    public static void main(String[] args) {
+
+        String[][] samples = {
+                {"AVRO", SchemaTypeTest.AVRO_SCHEMA},
+                {"PROTOBUF", SchemaTypeTest.PROTOBUF_SCHEMA},
+                {"JSON_SCHEMA", SchemaTypeTest.JSON_SCHEMA_SCHEMA}
+        };
+
+        for(String[] sample : samples) {
+            nanosPerOp(sample[1], false, WARMUP_ITERATIONS);
+            nanosPerOp(sample[1], true, WARMUP_ITERATIONS);
+        }
+
+        System.out.printf("%-12s %14s %14s%n", "type", "trial (us/op)", "detect (us/op)");
+        for(String[] sample : samples) {
+            double trial = nanosPerOp(sample[1], false, ITERATIONS);
+            double detect = nanosPerOp(sample[1], true, ITERATIONS);
+            System.out.printf("%-12s %14.2f %14.2f%n", sample[0], trial/1000, detect/1000);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for schema type detection.
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class SchemaTypeTest {
+
+    static final String AVRO_SCHEMA = "{\"type\":\"record\",\"name\":\"recordname\",\"fields\":[{\"name\":\"fieldA\",\"type\":\"int\"}]}";
+    static final String PROTOBUF_SCHEMA = "//\nsyntax = \"proto3\";\npackage test;\n\nmessage TestMessage {\n  string fieldA = 1;\n}\n";
+    static final String JSON_SCHEMA_SCHEMA = "{\"properties\":{\"fieldA\":{\"type\":\"string\"}}}";
+
+    @Test
+    public void testDetection() {
+        assertEquals(SchemaType.AVRO, SchemaType.detect(AVRO_SCHEMA));
+        assertEquals(SchemaType.AVRO, SchemaType.detect("\"string\""));
+        assertEquals(SchemaType.AVRO, SchemaType.detect("[\"null\", \"string\"]"));
+        assertEquals(SchemaType.PROTOBUF, SchemaType.detect(PROTOBUF_SCHEMA));
+        assertEquals(SchemaType.PROTOBUF, SchemaType.detect("syntax = \"proto3\";"));
+        // json is tried as avro first, whatever the dialect.
+        assertEquals(SchemaType.AVRO, SchemaType.detect(JSON_SCHEMA_SCHEMA));
+        assertEquals(SchemaType.AVRO, SchemaType.detect("/* comment */\n// another\n {\"type\":\"string\"}"));
+        assertNull(SchemaType.detect(""));
+        assertNull(SchemaType.detect(" // nothing but a comment"));
+    }
+
+    @Test
+    public void testDetectionAgreesWithTrialParsing() {
+        assertEquals(SchemaType.AVRO, new SchemaEntity(AVRO_SCHEMA).getSchemaType());
+        assertEquals(SchemaType.PROTOBUF, new SchemaEntity(PROTOBUF_SCHEMA).getSchemaType());
+        assertEquals(SchemaType.JSON_SCHEMA, new SchemaEntity(JSON_SCHEMA_SCHEMA).getSchemaType());
+    }
+
+    @Test
+    public void testGivenTypeIsUsed() {
+        assertEquals(SchemaType.JSON_SCHEMA, new SchemaEntity(JSON_SCHEMA_SCHEMA, SchemaType.JSON_SCHEMA).getSchemaType());
+        assertEquals(Collections.singletonList(SchemaType.PROTOBUF), SchemaType.candidatesFor(AVRO_SCHEMA, SchemaType.PROTOBUF));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoFallbackFromWrongGivenType() {
+        new SchemaEntity(AVRO_SCHEMA, SchemaType.PROTOBUF);
+    }
+
+    @Test
+    public void testForName() {
+        assertEquals(SchemaType.JSON_SCHEMA, SchemaType.forName("JSON"));
+        assertEquals(SchemaType.AVRO, SchemaType.forName("avro"));
+        assertNull(SchemaType.forName("XML"));
+    }
+}
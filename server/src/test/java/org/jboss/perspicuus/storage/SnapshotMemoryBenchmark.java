@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.perspicuus.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the heap used by a RegistrySnapshot holding one million schema versions,
+ * and the time taken to apply a single registration to it.
+ *
+ * Not run as part of the test suite. Invoke main() with the test classpath and a generous heap, e.g.
+ * MAVEN_OPTS=-Xmx4g mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.jboss.perspicuus.storage.SnapshotMemoryBenchmark
+ *
+ * @since 2019-04
+ * @author Jonathan Halliday (jonathan.halliday@redhat.com)
+ */
+public class SnapshotMemoryBenchmark {
+
+    private static final int SUBJECTS = 100000;
+    private static final int VERSIONS_PER_SUBJECT = 10;
+    private static final int CHANGES = 1000;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory()-runtime.freeMemory();
+    }
+
+    public static void main(String[] args) {
+
+        int versionCount = SUBJECTS*VERSIONS_PER_SUBJECT;
+
+        // schema text is stored once regardless of the indexing, so is measured separately.
+        long startHeap = usedHeap();
+        List<SchemaEntity> schemaEntities = new ArrayList<>(versionCount);
+        for(int id = 1; id <= versionCount; id++) {
+            schemaEntities.add(RegistrySnapshotTest.schemaEntity(id));
+        }
+        long schemaHeap = usedHeap()-startHeap;
+
+        RegistrySnapshot.Builder builder = new RegistrySnapshot.Builder();
+        for(SchemaEntity schemaEntity : schemaEntities) {
+            builder.addSchema(schemaEntity);
+        }
+        for(int s = 0; s < SUBJECTS; s++) {
+            builder.addSubject(RegistrySnapshotTest.subjectEntity("subject"+s, VERSIONS_PER_SUBJECT));
+            for(int v = 1; v <= VERSIONS_PER_SUBJECT; v++) {
+                builder.addSubjectVersion(new SubjectVersionEntity("subject"+s, v, s*VERSIONS_PER_SUBJECT+v));
+            }
+        }
+        RegistrySnapshot snapshot = builder.build();
+        builder = null;
+        long snapshotHeap = usedHeap()-startHeap-schemaHeap;
+
+        System.out.printf("schema versions:          %d%n", snapshot.getVersionCount());
+        System.out.printf("schema entities and text: %d MB (%d bytes per schema)%n", schemaHeap >> 20, schemaHeap/versionCount);
+        System.out.printf("snapshot indexes:         %d MB (%d bytes per version)%n", snapshotHeap >> 20, snapshotHeap/versionCount);
+
+        // each change adds a new schema as the next version of an existing subject.
+        long start = System.nanoTime();
+        for(int i = 0; i < CHANGES; i++) {
+            int id = versionCount+i+1;
+            String subject = "subject"+i;
+            List<SubjectVersionEntity> versions = new ArrayList<>();
+            for(int v = 1; v <= VERSIONS_PER_SUBJECT; v++) {
+                versions.add(snapshot.findSubjectVersion(subject, v));
+            }
+            versions.add(new SubjectVersionEntity(subject, VERSIONS_PER_SUBJECT+1, id));
+            snapshot = snapshot.withChanges(Collections.singletonList(RegistrySnapshotTest.schemaEntity(id)),
+                    Collections.singletonList(RegistrySnapshotTest.subjectEntity(subject, VERSIONS_PER_SUBJECT+1)), versions);
+        }
+        System.out.printf("single registration:      %.1f us%n", (System.nanoTime()-start)/1000.0/CHANGES);
+    }
+}